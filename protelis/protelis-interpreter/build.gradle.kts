@@ -20,3 +20,11 @@ eclipse {
         isDownloadSources = true
     }
 }
+
+tasks.processResources {
+    val interpreterVersion = project.version.toString()
+    inputs.property("version", interpreterVersion)
+    filesMatching("org/protelis/lang/version.properties") {
+        expand(mapOf("version" to interpreterVersion))
+    }
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Unit;
+import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.ConditionalSideEffect;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.StaticBranch;
+import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+
+/**
+ * Load-time simplification of freshly built AST nodes. Operators and tuples
+ * whose operands are all {@link Constant}s get replaced by their result, and
+ * ifs with a constant condition get replaced by the branch to be taken.
+ *
+ * Code paths are not affected: folded sub-trees only contain constants and
+ * operators, which never export values, while the branch of a pruned if is
+ * evaluated in the same stack frames of the original if (see
+ * {@link StaticBranch}). Hence, devices running optimized and unoptimized
+ * versions of the same program stay aligned.
+ */
+final class ConstantFolding {
+
+    private ConstantFolding() { }
+
+    /**
+     * @param node
+     *            a node, whose branches have already been folded
+     * @return a simplified equivalent node, or node itself if it can not be
+     *         simplified
+     */
+    static ProtelisAST<?> fold(final ProtelisAST<?> node) {
+        if (node instanceof If) {
+            return prune((If<?>) node);
+        }
+        if (node instanceof ConditionalSideEffect) {
+            final Object condition = constantValue(((ConditionalSideEffect) node).getCondition());
+            return Boolean.FALSE.equals(condition) ? new Constant<>(node.getMetadata(), Unit.UNIT) : node;
+        }
+        if (node instanceof BinaryOp || node instanceof UnaryOp || node instanceof TernaryOp || node instanceof CreateTuple) {
+            final Object[] operands = new Object[node.getBranches().size()];
+            for (int i = 0; i < operands.length; i++) {
+                operands[i] = constantValue(node.getBranch(i));
+                if (operands[i] == null) {
+                    return node;
+                }
+            }
+            try {
+                final Object result = evaluate(node, operands);
+                return result == null ? node : new Constant<>(node.getMetadata(), result);
+            } catch (RuntimeException e) { // NOPMD: the error will be raised at runtime
+                return node;
+            }
+        }
+        return node;
+    }
+
+    private static Object constantValue(final ProtelisAST<?> node) {
+        return node instanceof Constant ? ((Constant<?>) node).getConstantValue() : null;
+    }
+
+    private static Object evaluate(final ProtelisAST<?> node, final Object[] operands) {
+        if (node instanceof BinaryOp) {
+            return ((BinaryOp) node).getOperator().run(operands[0], operands[1]);
+        }
+        if (node instanceof UnaryOp) {
+            return ((UnaryOp) node).getOperator().run(operands[0]);
+        }
+        if (node instanceof TernaryOp) {
+            return ((TernaryOp) node).getOperator().run(operands[0], operands[1], operands[2]);
+        }
+        return DatatypeFactory.createTuple(operands);
+    }
+
+    private static <T> ProtelisAST<?> prune(final If<T> node) {
+        final Object condition = constantValue(node.getCondition());
+        if (condition instanceof Boolean && node.getElse() != null) {
+            final boolean taken = (Boolean) condition;
+            return new StaticBranch<>(node.getMetadata(), taken, taken ? node.getThen() : node.getElse());
+        }
+        return node;
+    }
+
+}
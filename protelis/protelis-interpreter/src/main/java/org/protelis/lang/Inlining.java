@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.ecore.EObject;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.CreateTuple;
+import org.protelis.lang.interpreter.impl.FunctionCall;
+import org.protelis.lang.interpreter.impl.InlinedFunctionCall;
+import org.protelis.lang.interpreter.impl.TernaryOp;
+import org.protelis.lang.interpreter.impl.UnaryOp;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.interpreter.util.Reference;
+import org.protelis.lang.loading.Metadata;
+import org.protelis.parser.protelis.FunctionDef;
+import org.protelis.parser.protelis.VarUse;
+
+/**
+ * Load-time inlining of calls to small, non recursive functions.
+ *
+ * If the body of the function only contains constants, variables, operators
+ * and tuples, and the arguments are constants, the call gets replaced by a
+ * copy of the body where parameters are substituted by the arguments. No
+ * field can flow into such trees, hence they never export values, and the
+ * code paths of the program are not affected. Variable arguments are not
+ * substituted: reading a variable holding a field restricts it, exporting at
+ * the current code path, which must stay the one of the original call.
+ *
+ * Otherwise, the call gets replaced by an {@link InlinedFunctionCall}, which
+ * binds the body at the call site, while keeping the stack frames of the
+ * original {@link FunctionCall}. Hence, devices running optimized and
+ * unoptimized versions of the same program stay aligned.
+ */
+final class Inlining {
+
+    private Inlining() { }
+
+    /**
+     * @param metadata
+     *            the metadata of the call
+     * @param definition
+     *            the parsed function
+     * @param function
+     *            the function definition
+     * @param args
+     *            the arguments of the call
+     * @param threshold
+     *            the maximum number of parsed nodes of an inlinable function
+     * @return the node that performs the call
+     */
+    static ProtelisAST<?> call(
+            final Metadata metadata,
+            final FunctionDef definition,
+            final FunctionDefinition function,
+            final List<ProtelisAST<?>> args,
+            final int threshold) {
+        if (!isInlinable(definition, threshold) || function.getParameterCount() != args.size()) {
+            return new FunctionCall(metadata, function, args);
+        }
+        final ProtelisAST<?> body = function.getBody();
+        if (isSubstitutable(body) && args.stream().allMatch(Constant.class::isInstance)) {
+            final Map<Reference, ProtelisAST<?>> bindings = new HashMap<>();
+            for (int i = 0; i < args.size(); i++) {
+                bindings.put(function.getArgumentByPosition(i), args.get(i));
+            }
+            return substitute(body, bindings);
+        }
+        return new InlinedFunctionCall(metadata, function, args);
+    }
+
+    private static boolean isInlinable(final FunctionDef definition, final int threshold) {
+        if (threshold <= 0) {
+            return false;
+        }
+        int size = 0;
+        for (final Iterator<EObject> contents = definition.eAllContents(); contents.hasNext(); contents.next()) {
+            if (++size > threshold) {
+                return false;
+            }
+        }
+        return !reaches(definition, definition, new HashSet<>());
+    }
+
+    private static boolean isLeaf(final ProtelisAST<?> node) {
+        return node instanceof Constant || node instanceof Variable;
+    }
+
+    private static boolean isSubstitutable(final ProtelisAST<?> node) {
+        if (isLeaf(node)) {
+            return true;
+        }
+        if (node instanceof BinaryOp || node instanceof UnaryOp || node instanceof TernaryOp || node instanceof CreateTuple) {
+            return node.getBranches().stream().allMatch(Inlining::isSubstitutable);
+        }
+        return false;
+    }
+
+    /**
+     * Functions referenced by the body are followed, as they can call the
+     * original function back. Unresolved references are assumed to do so.
+     */
+    private static boolean reaches(final EObject from, final FunctionDef target, final Set<EObject> visited) {
+        for (final Iterator<EObject> contents = from.eAllContents(); contents.hasNext();) {
+            final EObject node = contents.next();
+            if (node instanceof VarUse) {
+                final EObject reference = ((VarUse) node).getReference();
+                if (reference == target) {
+                    return true;
+                }
+                if (reference instanceof FunctionDef && visited.add(reference)
+                        && (reference.eIsProxy() || reaches(reference, target, visited))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static ProtelisAST<?> substitute(final ProtelisAST<?> node, final Map<Reference, ProtelisAST<?>> bindings) {
+        if (node instanceof Constant) {
+            return node;
+        }
+        if (node instanceof Variable) {
+            return bindings.getOrDefault(((Variable) node).getReference(), node);
+        }
+        final List<ProtelisAST<?>> branches = new ArrayList<>(node.getBranches().size());
+        for (final ProtelisAST<?> branch : node.getBranches()) {
+            branches.add(substitute(branch, bindings));
+        }
+        final Metadata metadata = node.getMetadata();
+        final ProtelisAST<?> result;
+        if (node instanceof BinaryOp) {
+            result = new BinaryOp(metadata, ((BinaryOp) node).getOperator().toString(), branches.get(0), branches.get(1));
+        } else if (node instanceof UnaryOp) {
+            result = new UnaryOp(metadata, ((UnaryOp) node).getOperator().toString(), branches.get(0));
+        } else if (node instanceof TernaryOp) {
+            result = new TernaryOp(metadata, ((TernaryOp) node).getOperator().toString(),
+                    branches.get(0), branches.get(1), branches.get(2));
+        } else {
+            result = new CreateTuple(metadata, branches);
+        }
+        return ConstantFolding.fold(result);
+    }
+
+}
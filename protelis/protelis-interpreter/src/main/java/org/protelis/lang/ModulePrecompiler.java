@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (C) 2010, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Build-time entry point that parses and links Protelis modules, and stores
+ * their built functions next to their sources, so that the loader can use them
+ * instead of building them again (see {@link ProtelisLoader}). The modules and
+ * all their imports must be available in the classpath.
+ */
+public final class ModulePrecompiler {
+
+    private ModulePrecompiler() { }
+
+    /**
+     * @param args
+     *            the output directory, followed by the paths of the modules
+     *            relative to the classpath root, e.g.
+     *            protelis/coord/spreading.pt
+     * @throws IOException
+     *             if a module cannot be read or the output cannot be written
+     */
+    public static void main(final String... args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("Usage: ModulePrecompiler <output directory> <module path>...");
+        }
+        final Path output = Paths.get(args[0]);
+        for (final String module : Arrays.asList(args).subList(1, args.length)) {
+            PrecompiledModules.write(output, module.replace('\\', '/'));
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright (C) 2010, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.protelis.vm.impl.SimpleProgramImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content-addressed store of serialized programs, used by
+ * {@link ProtelisLoader} to skip parsing and linking programs that have
+ * already been loaded by a previous run.
+ *
+ * Programs are stored freshly built, before being executed, under a key
+ * computed by {@link #newKey()} from the version of the interpreter and from
+ * the sources the program has been built from. Entries that cannot be read
+ * back are ignored and overwritten, so the store never prevents a program from
+ * loading.
+ *
+ * As the directory may be written by other processes, entries are read back
+ * only if they are made of the classes programs are built from: the Protelis
+ * classes, the Java language and collection classes and the libraries used by
+ * the evaluation tree. Entries referring to any other class, such as programs
+ * folding neighborhoods with methods of user classes, are ignored as if
+ * corrupted, and no object is created for them.
+ */
+final class PersistentProgramCache {
+
+    private static final String EXTENSION = ".ast";
+    private static final Set<String> ALLOWED_PACKAGES = ImmutableSet.of(
+            "java.lang",
+            "java.math",
+            "java.util",
+            "java.util.concurrent",
+            "com.google.common.base",
+            "com.google.common.collect",
+            "gnu.trove.list.array",
+            "gnu.trove.stack.array",
+            "org.apache.commons.lang3.tuple",
+            "org.apache.commons.math3.util",
+            "org.eclipse.xtext.common.types.impl");
+    private static final List<String> ALLOWED_PREFIXES = ImmutableList.of(
+            "org.protelis.lang.",
+            "org.protelis.parser.",
+            "org.protelis.vm.");
+    private static final Logger LOGGER = LoggerFactory.getLogger(PersistentProgramCache.class);
+    private static final String VERSION_RESOURCE = "version.properties";
+    private static final Optional<String> VERSION = readVersion();
+    private final Path directory;
+
+    /**
+     * @param directory
+     *            the directory where programs get stored. It gets created if
+     *            missing
+     */
+    PersistentProgramCache(final Path directory) {
+        this.directory = Objects.requireNonNull(directory);
+    }
+
+    /**
+     * @return the directory where programs get stored
+     */
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param key
+     *            the key of the program, see {@link #newKey()}
+     * @param loader
+     *            builds the program if not stored yet
+     * @return the stored program, or the program built by the loader, which
+     *         gets stored
+     */
+    SimpleProgramImpl get(final String key, final Supplier<SimpleProgramImpl> loader) {
+        final Path file = directory.resolve(key + EXTENSION);
+        if (Files.isRegularFile(file)) {
+            try (ObjectInputStream in = new ProgramInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                final Object stored = in.readObject();
+                if (stored instanceof SimpleProgramImpl) {
+                    return (SimpleProgramImpl) stored;
+                }
+                LOGGER.warn("Ignoring {}, which does not contain a program", file);
+            } catch (IOException | ClassNotFoundException e) {
+                LOGGER.warn("Ignoring {}, which cannot be read back", file, e);
+            }
+        }
+        final SimpleProgramImpl program = loader.get();
+        store(file, program);
+        return program;
+    }
+
+    /*
+     * Other processes may be reading the same entry: write a temporary file
+     * and rename it once complete
+     */
+    private void store(final Path file, final SimpleProgramImpl program) {
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                SerializationUtils.serialize(program, out);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | SerializationException e) {
+            LOGGER.warn("Program {} could not be stored in {}", program.getName(), directory, e);
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException deletionFailure) { // NOPMD: nothing else can be done
+                    LOGGER.debug("Could not delete {}", temporary, deletionFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a {@link Hasher} that already includes the interpreter version,
+     *         to which the sources of a program must be added, or an empty
+     *         {@link Optional} if the interpreter version is unknown (e.g.
+     *         when not running from a packaged build), as stored programs
+     *         could then be incompatible with the running interpreter
+     */
+    static Optional<Hasher> newKey() {
+        return VERSION.map(version -> putString(Hashing.sha256().newHasher(), version));
+    }
+
+    /**
+     * @return the version of the interpreter, written in the version
+     *         resource at build time, or an empty {@link Optional} if not
+     *         running from a packaged build
+     */
+    static Optional<String> interpreterVersion() {
+        return VERSION;
+    }
+
+    /**
+     * @param hasher
+     *            the key being computed
+     * @param string
+     *            the string to add
+     * @return the hasher
+     */
+    static Hasher putString(final Hasher hasher, final String string) {
+        return hasher.putInt(string.length()).putString(string, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param className
+     *            the name of a class, as provided by {@link Class#getName()}
+     * @return true if instances of the class can be read back from the store
+     */
+    static boolean isAllowed(final String className) {
+        final String elementName = className.replaceFirst("^\\[+", "");
+        if (elementName.length() != className.length()) {
+            /*
+             * Arrays: allowed if primitive, or if their elements are allowed
+             */
+            return elementName.length() == 1
+                    || elementName.startsWith("L") && elementName.endsWith(";")
+                        && isAllowed(elementName.substring(1, elementName.length() - 1));
+        }
+        final int packageEnd = className.lastIndexOf('.');
+        return ALLOWED_PREFIXES.stream().anyMatch(className::startsWith)
+                || packageEnd > 0 && ALLOWED_PACKAGES.contains(className.substring(0, packageEnd))
+                || "java.lang.invoke.SerializedLambda".equals(className);
+    }
+
+    private static Optional<String> readVersion() {
+        final Properties properties = new Properties();
+        try (InputStream in = PersistentProgramCache.class.getResourceAsStream(VERSION_RESOURCE)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Could not read the interpreter version", e);
+        }
+        return Optional.ofNullable(properties.getProperty("version"))
+                .filter(version -> !version.isEmpty() && !version.startsWith("$"));
+    }
+
+    /*
+     * Rejects the classes that programs are not made of before any instance
+     * gets created
+     */
+    private static final class ProgramInputStream extends ObjectInputStream {
+
+        private ProgramInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!isAllowed(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not allowed in stored programs");
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(final String[] interfaces) throws IOException {
+            throw new InvalidClassException("Proxies are not allowed in stored programs");
+        }
+
+    }
+
+}
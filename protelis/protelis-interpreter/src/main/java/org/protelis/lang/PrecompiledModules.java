@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (C) 2010, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.parser.protelis.FunctionDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Functions of classpath modules built at build time (see
+ * {@link ModulePrecompiler}), stored next to the module sources.
+ *
+ * When the loader builds a reference to a function of a classpath module, it
+ * uses the precompiled function, if the module has been precompiled from the
+ * same sources, including those of all the transitively imported modules, by
+ * the same interpreter version and with the same inlining threshold.
+ * Otherwise, the function is built from the parsed module as usual.
+ */
+final class PrecompiledModules {
+
+    private static final String CLASSPATH_PREFIX = "classpath:/";
+    private static final String EXTENSION = "c";
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrecompiledModules.class);
+    private static final Map<String, Optional<Module>> MODULES = new ConcurrentHashMap<>();
+
+    private PrecompiledModules() { }
+
+    /**
+     * @param definition
+     *            the parsed function
+     * @param inliningThreshold
+     *            the current inlining threshold
+     * @return the precompiled function, if available
+     */
+    static Optional<FunctionDefinition> lookup(final FunctionDef definition, final int inliningThreshold) {
+        final Resource resource = definition.eResource();
+        if (resource == null || resource.getURI() == null) {
+            return Optional.empty();
+        }
+        final String uri = resource.getURI().toString();
+        if (!uri.startsWith(CLASSPATH_PREFIX)) {
+            return Optional.empty();
+        }
+        return MODULES.computeIfAbsent(uri.substring(CLASSPATH_PREFIX.length()), PrecompiledModules::read)
+                .filter(module -> module.inliningThreshold == inliningThreshold)
+                .map(module -> module.functions.get(ProtelisLoadingUtilities.qualifiedNameFor(definition)));
+    }
+
+    /**
+     * Builds all the functions of a classpath module and stores them next to
+     * the module source.
+     *
+     * @param outputDirectory
+     *            the root of the output classpath
+     * @param sourcePath
+     *            the path of the module source relative to the classpath
+     *            root, e.g. protelis/coord/spreading.pt
+     * @throws IOException
+     *             if the module cannot be read or the output cannot be written
+     */
+    static void write(final Path outputDirectory, final String sourcePath) throws IOException {
+        final String version = PersistentProgramCache.interpreterVersion()
+                .orElseThrow(() -> new IllegalStateException("Modules can only be precompiled by a packaged interpreter"));
+        final String source = readSource(sourcePath)
+                .orElseThrow(() -> new IllegalArgumentException(sourcePath + " cannot be found in the classpath"));
+        final int inliningThreshold = ProtelisLoader.getInliningThreshold();
+        final String sourceHash = hash(source)
+                .orElseThrow(() -> new IllegalArgumentException("The imports of " + sourcePath + " cannot be found"));
+        final Module module = new Module(version, inliningThreshold, sourceHash,
+                ProtelisLoader.buildModuleFunctions(CLASSPATH_PREFIX + sourcePath));
+        final Path output = outputDirectory.resolve(sourcePath + EXTENSION);
+        Files.createDirectories(output.getParent());
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+            SerializationUtils.serialize(module, out);
+        }
+    }
+
+    private static Optional<Module> read(final String sourcePath) {
+        try (InputStream in = classLoader().getResourceAsStream(sourcePath + EXTENSION)) {
+            if (in != null) {
+                final Object stored = SerializationUtils.deserialize(in);
+                if (stored instanceof Module) {
+                    final Module module = (Module) stored;
+                    if (PersistentProgramCache.interpreterVersion().filter(module.version::equals).isPresent()
+                            && readSource(sourcePath).flatMap(PrecompiledModules::hash).filter(module.sourceHash::equals).isPresent()) {
+                        return Optional.of(module);
+                    }
+                    LOGGER.info("Ignoring the precompiled form of {}, built from another source or interpreter", sourcePath);
+                }
+            }
+        } catch (IOException | SerializationException e) {
+            LOGGER.warn("Ignoring the precompiled form of {}, which cannot be read", sourcePath, e);
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<String> readSource(final String sourcePath) throws IOException {
+        try (InputStream in = classLoader().getResourceAsStream(sourcePath)) {
+            return in == null ? Optional.empty() : Optional.of(IOUtils.toString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static ClassLoader classLoader() {
+        return Thread.currentThread().getContextClassLoader();
+    }
+
+    /*
+     * Imported modules get inlined and linked into the functions, hence their
+     * sources are part of the hash
+     */
+    private static Optional<String> hash(final String source) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        return ProtelisLoader.putSources(hasher, source, new HashSet<>())
+                ? Optional.of(hasher.hash().toString())
+                : Optional.empty();
+    }
+
+    private static final class Module implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String version;
+        private final int inliningThreshold;
+        private final String sourceHash;
+        private final Map<String, FunctionDefinition> functions;
+
+        private Module(
+                final String version,
+                final int inliningThreshold,
+                final String sourceHash,
+                final Map<String, FunctionDefinition> functions) {
+            this.version = version;
+            this.inliningThreshold = inliningThreshold;
+            this.sourceHash = sourceHash;
+            this.functions = functions;
+        }
+    }
+
+}
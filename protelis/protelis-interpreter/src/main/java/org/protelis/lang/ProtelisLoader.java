@@ -15,31 +15,42 @@ import static org.protelis.lang.ProtelisLoadingUtilities.referenceListFor;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.EObject;
 import org.eclipse.emf.ecore.resource.Resource;
 import org.eclipse.emf.ecore.resource.Resource.Diagnostic;
 import org.eclipse.emf.ecore.util.Diagnostician;
+import org.eclipse.emf.ecore.util.EcoreUtil;
 import org.eclipse.xtext.common.types.JvmFeature;
+import org.eclipse.xtext.common.types.JvmIdentifiableElement;
 import org.eclipse.xtext.common.types.JvmOperation;
 import org.eclipse.xtext.nodemodel.INode;
 import org.eclipse.xtext.nodemodel.util.NodeModelUtils;
@@ -115,28 +126,32 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 //import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 
+import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.inject.Injector;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
-
 /**
  * Main entry-point class for loading/parsing Protelis programs.
  */
 public final class ProtelisLoader {
 
+    /**
+     * Default maximum size, in parsed nodes, of the functions that get inlined.
+     */
+    public static final int DEFAULT_INLINING_THRESHOLD = 32;
+    /**
+     * Default maximum number of programs kept by {@link #parseCachedAnonymousModule(String)}.
+     */
+    public static final int DEFAULT_PROGRAM_CACHE_SIZE = 1024;
     private static final String HOOD_END = "Hood";
-    private static final ThreadLocal<Cache<String, Resource>> LOADED_RESOURCES = new ThreadLocal<Cache<String, Resource>>() {
-        @Override
-        protected Cache<String, Resource> initialValue() {
-            return CacheBuilder.newBuilder()
-                    .expireAfterAccess(1, TimeUnit.MINUTES)
-                    .build();
-        }
-    };
     private static final Logger LOGGER = LoggerFactory.getLogger(ProtelisLoader.class);
     private static final String OPEN_J9_EMF_WORKED_AROUND = "Working around OpenJ9 + Eclipse EMF bug."
             + "See: https://bugs.eclipse.org/bugs/show_bug.cgi?id=549084"
@@ -145,62 +160,231 @@ public final class ProtelisLoader {
     private static final Pattern REGEX_PROTELIS_IMPORT = Pattern.compile("^\\s*import\\s+((?:\\w+:)*\\w+)\\s+", Pattern.MULTILINE);
     private static final Pattern REGEX_PROTELIS_MODULE = Pattern.compile("(?:\\w+:)*\\w+");
 
-    private static final ThreadLocal<XtextResourceSet> XTEXT = new ThreadLocal<XtextResourceSet>() {
-        @Override
-        protected XtextResourceSet initialValue() {
-            final Injector guiceInjector = new ProtelisStandaloneSetup().createInjectorAndDoEMFRegistration();
-            final XtextResourceSet xtext = guiceInjector.getInstance(XtextResourceSet.class);
-            xtext.addLoadOption(XtextResource.OPTION_RESOLVE_ALL, Boolean.TRUE);
-            return xtext;
-        }
-    };
+    /*
+     * Modules are looked up through the context class loader of the loading
+     * thread (see ResolvedResource): all the threads sharing it share the same
+     * modules, which get parsed once per process.
+     */
+    private static final LoadingCache<ClassLoader, ModuleSet> MODULES = CacheBuilder.newBuilder()
+            .weakKeys()
+            .softValues()
+            .build(CacheLoader.from(classLoader -> new ModuleSet()));
+
+    private static volatile int inliningThreshold = DEFAULT_INLINING_THRESHOLD;
+    private static volatile Cache<Pair<Integer, String>, SimpleProgramImpl> programCache = programCache(DEFAULT_PROGRAM_CACHE_SIZE);
+    private static volatile PersistentProgramCache persistentCache;
+    private static volatile boolean parallelModuleParsing = true;
 
     private ProtelisLoader() {
     }
 
-    private static void loadResourcesRecursively(final XtextResourceSet target, final String programURI)
-            throws IOException {
-        loadResourcesRecursively(target, programURI, new LinkedHashSet<>());
+    /**
+     * @return the maximum size, in parsed nodes, of the non recursive functions
+     *         whose calls get inlined. A value of zero or less means that no
+     *         call is inlined
+     */
+    public static int getInliningThreshold() {
+        return inliningThreshold;
     }
 
-    @SuppressFBWarnings(value = "RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", justification = "False positive")
-    private static void loadResourcesRecursively(
-            final XtextResourceSet target,
-            final String programURI,
-            final Set<String> alreadyInQueue) throws IOException {
-        final ResolvedResource resource = new ResolvedResource(programURI);
-        if (LOADED_RESOURCES.get().getIfPresent(programURI) == null && !alreadyInQueue.contains(programURI)) {
-            alreadyInQueue.add(programURI);
-            final URI uri = workAroundOpenJ9EMFBug(() -> URI.createURI(resource.realURI));
-            if (resource.exists()) {
-                try (InputStream is = resource.openStream()) {
-                    final String ss = IOUtils.toString(is, "UTF-8");
-                    final Matcher matcher = REGEX_PROTELIS_IMPORT.matcher(ss);
-                    while (matcher.find()) {
-                        final int start = matcher.start(1);
-                        final int end = matcher.end(1);
-                        final String imp = ss.substring(start, end);
-                        final String classpathResource = "classpath:/" + imp.replace(":", "/") + "." + PROTELIS_FILE_EXTENSION;
-                        loadResourcesRecursively(target, classpathResource, alreadyInQueue);
-                    }
+    /**
+     * Changes the maximum size of the functions whose calls get inlined while
+     * loading. Inlining does not change the code paths, so devices running
+     * programs loaded with different thresholds stay aligned. Programs that
+     * have already been loaded are not affected, and
+     * {@link #parseCachedAnonymousModule(String)} does not reuse programs
+     * loaded with a different threshold.
+     *
+     * @param threshold
+     *            the maximum number of parsed nodes, or zero to disable
+     *            inlining
+     */
+    public static void setInliningThreshold(final int threshold) {
+        inliningThreshold = threshold;
+    }
+
+    /**
+     * @return the statistics of the cache used by
+     *         {@link #parseCachedAnonymousModule(String)}, since the last
+     *         change of its size
+     */
+    public static CacheStats getProgramCacheStats() {
+        return programCache.stats();
+    }
+
+    /**
+     * Replaces the cache used by {@link #parseCachedAnonymousModule(String)}
+     * with an empty one, holding at most the provided number of programs.
+     * Statistics are reset.
+     *
+     * @param size
+     *            the maximum number of programs, or zero to disable caching
+     */
+    public static void setProgramCacheSize(final int size) {
+        programCache = programCache(size);
+    }
+
+    /**
+     * @return the directory where loaded programs are stored, if any (see
+     *         {@link #setPersistentCacheDirectory(Path)})
+     */
+    public static Optional<Path> getPersistentCacheDirectory() {
+        return Optional.ofNullable(persistentCache).map(PersistentProgramCache::getDirectory);
+    }
+
+    /**
+     * Enables storing the programs loaded from a module name or from a URI
+     * by {@link #parse(String)} and {@link #parseURI(String)} in the provided
+     * directory, which can be shared by several processes. Programs passed as
+     * text, including those evaluated at runtime, are not stored. Once a
+     * program is stored, loading it again, also from another process, reads
+     * it back without parsing: programs are identified by the version of the
+     * interpreter, by the inlining threshold and by their source, including
+     * all the imported modules, so a change in any of them causes the program
+     * to be parsed and stored again. Outdated entries are not removed, and
+     * only the classes programs are made of are read back from the directory.
+     *
+     * Storing is disabled if the interpreter version is unknown, which is the
+     * case when running from an unpackaged build.
+     *
+     * @param directory
+     *            the directory, created if missing, or null to disable
+     *            storing
+     */
+    public static void setPersistentCacheDirectory(@Nullable final Path directory) {
+        if (directory != null && !PersistentProgramCache.newKey().isPresent()) {
+            LOGGER.warn("The interpreter version is unknown, programs will not be stored in {}", directory);
+        }
+        persistentCache = directory == null ? null : new PersistentProgramCache(directory);
+    }
+
+    private static Cache<Pair<Integer, String>, SimpleProgramImpl> programCache(final int size) {
+        return CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @return true if the modules imported by a program, which have not been
+     *         loaded yet, get parsed in parallel
+     */
+    public static boolean isParallelModuleParsing() {
+        return parallelModuleParsing;
+    }
+
+    /**
+     * Enables or disables parsing in parallel the modules imported by a
+     * program, which have not been loaded yet. Each module is parsed in its
+     * own resource set, without blocking the threads loading other programs.
+     * Linking is always sequential.
+     *
+     * @param parallel
+     *            true to parse in parallel
+     */
+    public static void setParallelModuleParsing(final boolean parallel) {
+        parallelModuleParsing = parallel;
+    }
+
+    private static ModuleSet modules() {
+        final ClassLoader context = Thread.currentThread().getContextClassLoader();
+        return MODULES.getUnchecked(context == null ? ProtelisLoader.class.getClassLoader() : context);
+    }
+
+    /*
+     * Returns the resource at the provided URI, loading it along with all the
+     * modules it transitively imports, unless already loaded. Sources get
+     * parsed first, without holding the lock of the modules and possibly in
+     * parallel, each in a scratch resource set, as resource sets are not
+     * thread safe. Parsed resources are then moved to the shared resource set
+     * and linked holding its lock, so that circular imports are found when
+     * linking. A resource parsed concurrently by another thread is discarded.
+     */
+    private static Resource loadModules(final String uri, final String source) throws IOException {
+        final ModuleSet modules = modules();
+        final Map<String, String> pending = new LinkedHashMap<>();
+        if (!modules.loaded.contains(uri)) {
+            pending.put(uri, source);
+        }
+        collectImports(modules, source, pending);
+        final List<String> uris = new ArrayList<>(pending.keySet());
+        final Resource[] parsed = new Resource[uris.size()];
+        final IntStream parsing = IntStream.range(0, parsed.length);
+        try {
+            (parallelModuleParsing ? parsing.parallel() : parsing)
+                .forEach(i -> parsed[i] = parse(modules, uris.get(i), pending.get(uris.get(i))));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        final URI resourceURI = workAroundOpenJ9EMFBug(() -> URI.createURI(uri));
+        synchronized (modules.xtext) {
+            final List<Resource> added = new ArrayList<>(parsed.length);
+            for (final Resource resource : parsed) {
+                if (modules.xtext.getResource(resource.getURI(), false) == null) {
+                    modules.xtext.getResources().add(resource);
+                    added.add(resource);
                 }
-                LOADED_RESOURCES.get().put(programURI, workAroundOpenJ9EMFBug(() -> target.getResource(uri, true)));
-            } else {
-                throw new IllegalStateException("expected resource " + resource + " was not found");
             }
+            for (final Resource resource : added) {
+                link(resource);
+            }
+            modules.loaded.addAll(uris);
+            return Objects.requireNonNull(modules.xtext.getResource(resourceURI, false));
         }
     }
 
-    private static void loadStringResources(final XtextResourceSet target, final InputStream is) throws IOException {
-        final Set<String> alreadyInQueue = new LinkedHashSet<>();
-        final String ss = IOUtils.toString(is, "UTF-8");
-        final Matcher matcher = REGEX_PROTELIS_IMPORT.matcher(ss);
+    private static Resource parse(final ModuleSet modules, final String uri, final String source) {
+        final XtextResourceSet scratch = modules.newResourceSet();
+        final Resource resource = workAroundOpenJ9EMFBug(() -> scratch.createResource(URI.createURI(uri)));
+        try (InputStream in = new StringInputStream(source)) {
+            workAroundOpenJ9EMFBug(() -> {
+                try {
+                    resource.load(in, modules.parseOnly);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return resource;
+    }
+
+    /*
+     * Programs get built from the linked resources without holding the lock:
+     * besides the cross references, the types of the Java members they refer
+     * to get resolved, as they would be lazily when computing their
+     * identifiers
+     */
+    private static void link(final Resource resource) {
+        workAroundOpenJ9EMFBug(() -> {
+            EcoreUtil.resolveAll(resource);
+            resource.getAllContents().forEachRemaining(element -> {
+                for (final EObject reference : element.eCrossReferences()) {
+                    if (reference instanceof JvmIdentifiableElement) {
+                        ((JvmIdentifiableElement) reference).getIdentifier();
+                    }
+                }
+            });
+            return null;
+        });
+    }
+
+    private static void collectImports(final ModuleSet modules, final String source, final Map<String, String> pending) {
+        final Matcher matcher = REGEX_PROTELIS_IMPORT.matcher(source);
         while (matcher.find()) {
-            final int start = matcher.start(1);
-            final int end = matcher.end(1);
-            final String imp = ss.substring(start, end);
-            final String classpathResource = "classpath:/" + imp.replace(":", "/") + "." + PROTELIS_FILE_EXTENSION;
-            loadResourcesRecursively(target, classpathResource, alreadyInQueue);
+            final String imp = matcher.group(1);
+            final ResolvedResource resource = new ResolvedResource(
+                    "classpath:/" + imp.replace(":", "/") + "." + PROTELIS_FILE_EXTENSION);
+            if (!modules.loaded.contains(resource.realURI) && !pending.containsKey(resource.realURI)) {
+                final String importedSource = resource.exists() ? resource.read() : null;
+                if (importedSource == null) {
+                    throw new IllegalStateException("expected resource " + resource + " was not found");
+                }
+                pending.put(resource.realURI, importedSource);
+                collectImports(modules, importedSource, pending);
+            }
         }
     }
 
@@ -227,7 +411,53 @@ public final class ProtelisLoader {
      * @return a {@link ProtelisProgram}
      */
     public static ProtelisProgram parse(final Resource resource) {
-        Objects.requireNonNull(resource);
+        return createProgram(resource);
+    }
+
+    private static SimpleProgramImpl createProgram(final Resource resource) {
+        final ProtelisModule root = validModule(resource);
+        Objects.requireNonNull(root.getProgram(),
+                "The provided resource does not contain any main program, and can not be executed.");
+        return new SimpleProgramImpl(root, Dispatch.block(root.getProgram()));
+    }
+
+    /**
+     * Builds all the functions of a module, which may have no main program.
+     * Used at build time by {@link PrecompiledModules}.
+     *
+     * @param moduleURI
+     *            the module URI
+     * @return the functions of the module, by qualified name
+     * @throws IOException
+     *             when the module or one of its imports cannot be read
+     */
+    static Map<String, FunctionDefinition> buildModuleFunctions(final String moduleURI) throws IOException {
+        final ProtelisModule root = validModule(resourceFromURIString(moduleURI)
+                .orElseThrow(() -> new IllegalArgumentException(moduleURI + " cannot be found")));
+        final Map<String, FunctionDefinition> functions = new LinkedHashMap<>();
+        for (final EObject element : root.eContents()) {
+            if (element instanceof FunctionDef) {
+                final FunctionDefinition function = Dispatch.function((FunctionDef) element);
+                function.getBody();
+                functions.put(function.getName(), function);
+            }
+        }
+        return functions;
+    }
+
+    /*
+     * Validation reads the resource set the resource belongs to, which may be
+     * shared
+     */
+    private static ProtelisModule validModule(final Resource resource) {
+        final Object lock = Optional.<Object>ofNullable(Objects.requireNonNull(resource).getResourceSet())
+                .orElse(resource);
+        synchronized (lock) {
+            return checkedModule(resource);
+        }
+    }
+
+    private static ProtelisModule checkedModule(final Resource resource) {
         if (!resource.getErrors().isEmpty()) {
             final String moduleName = Optional.ofNullable(resource.getContents())
                     .map(it -> it.get(0))
@@ -264,12 +494,10 @@ public final class ProtelisLoader {
             }
             throw new IllegalArgumentException(sb.toString());
         }
-        final ProtelisModule root = (ProtelisModule) resource.getContents().get(0);
-        Objects.requireNonNull(Objects.requireNonNull(root).getProgram(),
-                "The provided resource does not contain any main program, and can not be executed.");
+        final ProtelisModule root = Objects.requireNonNull((ProtelisModule) resource.getContents().get(0));
         Diagnostician.INSTANCE.validate(root).getChildren()
             .forEach(it -> LOGGER.warn("severity {}: {}", it.getSeverity(), it.getMessage()));
-        return new SimpleProgramImpl(root, Dispatch.block(root.getProgram()));
+        return root;
     }
 
     /**
@@ -308,15 +536,13 @@ public final class ProtelisLoader {
         try {
             if (REGEX_PROTELIS_MODULE.matcher(program).matches()) {
                 final String programURI = "classpath:/" + program.replace(':', '/') + "." + PROTELIS_FILE_EXTENSION;
-                final Optional<ProtelisProgram> programResource = resourceFromURIString(programURI)
-                        .map(ProtelisLoader::parse);
+                final Optional<SimpleProgramImpl> programResource = programFromURIString(programURI);
                 if (programResource.isPresent()) {
                     return programResource.get();
                 }
             }
-            return resourceFromURIString(program)
-                .map(ProtelisLoader::parse)
-                .orElseGet(() -> parseAnonymousModule(program));
+            return programFromURIString(program)
+                .orElseGet(() -> anonymousModule(program));
         } catch (IOException e) {
             throw new IllegalStateException(program + " looks like an URI, but its resolution failed (see cause)", e);
         }
@@ -337,7 +563,39 @@ public final class ProtelisLoader {
      *             when the program has errors
      */
     public static ProtelisProgram parseAnonymousModule(final String program) {
-        return parse(resourceFromString(program));
+        return anonymousModule(program);
+    }
+
+    /*
+     * Anonymous programs are not stored, as each distinct text, such as those
+     * built at runtime and run through eval, would add an entry
+     */
+    private static SimpleProgramImpl anonymousModule(final String program) {
+        return createProgram(resourceFromString(program));
+    }
+
+    /**
+     * Same as {@link #parseAnonymousModule(String)}, but each program text is
+     * parsed once per process, as long as it is kept in a bounded cache of
+     * recently used programs (see {@link #setProgramCacheSize(int)}). Programs
+     * are cached along with the inlining threshold they were loaded with. The
+     * returned programs share the same evaluation tree, but each keeps its
+     * own state, and can hence be used by a different device.
+     *
+     * @param program
+     *            A valid Protelis program to be prepared for execution
+     * @return a {@link ProtelisProgram}
+     * @throws IllegalArgumentException
+     *             when the program has errors
+     */
+    public static ProtelisProgram parseCachedAnonymousModule(final String program) {
+        try {
+            return programCache.get(ImmutablePair.of(inliningThreshold, program), () -> anonymousModule(program))
+                    .newInstance();
+        } catch (UncheckedExecutionException | ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException(e.getCause());
+        }
     }
 
     /**
@@ -360,7 +618,7 @@ public final class ProtelisLoader {
      *             when the program has errors
      */
     public static ProtelisProgram parseURI(final String programURI) throws IOException {
-        return parse(resourceFromURIString(programURI).orElseThrow(IllegalArgumentException::new));
+        return programFromURIString(programURI).orElseThrow(IllegalArgumentException::new);
     }
 
     private static List<Diagnostic> recursivelyCollectErrors(final Resource resource) {
@@ -377,36 +635,101 @@ public final class ProtelisLoader {
      * @return a dummy:/ resource that can be used to interpret the program
      */
     public static Resource resourceFromString(final String program) {
-        final String programId = "dummy:/protelis-generated-program-"
+        try {
+            return loadModules(anonymousURI(program), program);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't get resource associated with anonymous program: "
+                    + e.getMessage(), e);
+        }
+    }
+
+    private static String anonymousURI(final String program) {
+        return "dummy:/protelis-generated-program-"
             + Hashing.sha512().hashString(program, StandardCharsets.UTF_8)
             + ".pt";
-        final URI uri = workAroundOpenJ9EMFBug(() -> URI.createURI(programId));
-        synchronized (XTEXT) {
-            Resource r = XTEXT.get().getResource(uri, false);
-            if (r == null) {
-                try (InputStream in = new StringInputStream(program)) {
-                    loadStringResources(XTEXT.get(), in);
-                } catch (IOException e) {
-                    throw new IllegalStateException("Couldn't get resource associated with anonymous program: "
-                            + e.getMessage(), e);
+    }
+
+    private static Optional<SimpleProgramImpl> programFromURIString(final String programURI) throws IOException {
+        final ResolvedResource resource = new ResolvedResource(programURI);
+        if (resource.exists()) {
+            try {
+                return Optional.of(persisted(resource.realURI, persistentCache == null ? null : resource.read(), () -> {
+                    try {
+                        return createProgram(resourceFromURIString(programURI).orElseThrow(IllegalStateException::new));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        return Optional.empty();
+    }
+
+    /*
+     * Programs are stored under the hash of the interpreter version, of the
+     * inlining threshold, of their URI and of their sources, including all the
+     * transitively imported modules. Imports are found as done by
+     * loadModules, without parsing.
+     */
+    private static SimpleProgramImpl persisted(
+            final String uri,
+            @Nullable final String source,
+            final Supplier<SimpleProgramImpl> loader) {
+        final PersistentProgramCache cache = persistentCache;
+        if (cache != null && source != null) {
+            final Optional<Hasher> key = PersistentProgramCache.newKey();
+            if (key.isPresent()
+                    && putSources(PersistentProgramCache.putString(key.get().putInt(inliningThreshold), uri), source, new LinkedHashSet<>())) {
+                return cache.get(key.get().hash().toString(), loader);
+            }
+        }
+        return loader.get();
+    }
+
+    /**
+     * Adds a source to a key, along with the sources of all the modules it
+     * transitively imports, found as done by loadModules, without parsing.
+     *
+     * @param key
+     *            the key being computed
+     * @param source
+     *            the source
+     * @param alreadyHashed
+     *            the modules already added to the key, which get skipped
+     * @return false if an imported module cannot be read, in which case the
+     *         key must not be used
+     */
+    static boolean putSources(final Hasher key, final String source, final Set<String> alreadyHashed) {
+        PersistentProgramCache.putString(key, source);
+        final Matcher matcher = REGEX_PROTELIS_IMPORT.matcher(source);
+        while (matcher.find()) {
+            final String imp = matcher.group(1);
+            final String classpathResource = "classpath:/" + imp.replace(":", "/") + "." + PROTELIS_FILE_EXTENSION;
+            if (alreadyHashed.add(classpathResource)) {
+                final ResolvedResource resource = new ResolvedResource(classpathResource);
+                final String importedSource = resource.exists() ? resource.read() : null;
+                if (importedSource == null) {
+                    return false;
                 }
-                r = XTEXT.get().createResource(uri);
-                try (InputStream in = new StringInputStream(program)) {
-                    r.load(in, XTEXT.get().getLoadOptions());
-                } catch (IOException e) {
-                    throw new IllegalStateException("I/O error while reading in RAM: this must be tough.", e);
+                PersistentProgramCache.putString(key, classpathResource);
+                if (!putSources(key, importedSource, alreadyHashed)) {
+                    return false;
                 }
             }
-            return r;
         }
+        return true;
     }
 
     private static Optional<Resource> resourceFromURIString(final String programURI) throws IOException {
         final ResolvedResource resource = new ResolvedResource(programURI);
         if (resource.exists()) {
-            loadResourcesRecursively(XTEXT.get(), programURI);
-            final URI uri = workAroundOpenJ9EMFBug(() -> URI.createURI(resource.realURI));
-            return Optional.of(XTEXT.get().getResource(uri, true));
+            final String source = resource.read();
+            if (source == null) {
+                throw new IOException("Could not read " + resource);
+            }
+            return Optional.of(loadModules(resource.realURI, source));
         } else {
             return Optional.empty();
         }
@@ -486,7 +809,8 @@ public final class ProtelisLoader {
             }
             if (expression instanceof Mux) {
                 final Mux mux = (Mux) expression;
-                return new TernaryOp(meta, mux.getName(), expression(mux.getCond()), block(mux.getThen()), block(mux.getElse()));
+                return ConstantFolding.fold(
+                        new TernaryOp(meta, mux.getName(), expression(mux.getCond()), block(mux.getThen()), block(mux.getElse())));
             }
             if (expression instanceof org.protelis.parser.protelis.Self) {
                 return new Self(meta);
@@ -544,7 +868,7 @@ public final class ProtelisLoader {
             final List<EObject> elements = expression.getElements();
             final Metadata meta = metadataFor(expression);
             switch (elements.size()) {
-                case 1: return new UnaryOp(meta, expression.getName(), expression((Expression) elements.get(0)));
+                case 1: return ConstantFolding.fold(new UnaryOp(meta, expression.getName(), expression((Expression) elements.get(0))));
                 case 2: 
                     final ProtelisAST<?> first = expression((Expression) expression.getElements().get(0));
                     final EObject second = expression.getElements().get(1);
@@ -555,7 +879,15 @@ public final class ProtelisLoader {
                            final Object constant = ((Constant) first).getConstantValue();
                            if (constant instanceof FunctionDefinition) {
                                // It's a plain function call, possibly on a lambda, don't go through Invoke
-                               return new FunctionCall(meta, (FunctionDefinition) constant, invocationArguments(invokeArgs));
+                               final FunctionDefinition function = (FunctionDefinition) constant;
+                               final EObject target = elements.get(0) instanceof VarUse
+                                       ? ((VarUse) elements.get(0)).getReference()
+                                       : null;
+                               if (target instanceof FunctionDef) {
+                                   return Inlining.call(meta, (FunctionDef) target, function,
+                                           invocationArguments(invokeArgs), inliningThreshold);
+                               }
+                               return new FunctionCall(meta, function, invocationArguments(invokeArgs));
                            }
                         }
                         // TODO: Drop "apply", and allow only standard invocations with better system
@@ -567,19 +899,19 @@ public final class ProtelisLoader {
                         return new Invoke(meta, method.getName(), first, invocationArguments(method.getArguments()));
                     }
                     if (expression.getName() != null) {
-                        return new BinaryOp(meta, expression.getName(), first, expression((Expression) second));
+                        return ConstantFolding.fold(new BinaryOp(meta, expression.getName(), first, expression((Expression) second)));
                     }
                 default: throw new IllegalStateException("Unknown AST node " + expression);
             }
         }
 
         private static ProtelisAST<?> ifOp(final org.protelis.parser.protelis.If ifOp) {
-            return new If<>(metadataFor(ifOp), expression(ifOp.getCond()),
+            return ConstantFolding.fold(new If<>(metadataFor(ifOp), expression(ifOp.getCond()),
                     blockUnsafe(ifOp.getThen()),
-                    block(ifOp.getElse()));
+                    block(ifOp.getElse())));
         }
 
-        private static ConditionalSideEffect ifWithoutElse(final IfWithoutElse ifOp) {
+        private static ProtelisAST<?> ifWithoutElse(final IfWithoutElse ifOp) {
             final Metadata meta = metadataFor(ifOp);
             final List<ProtelisAST<?>> then = ifOp.getThen().stream()
                     .map(it -> statement(it))
@@ -587,7 +919,7 @@ public final class ProtelisLoader {
             final ProtelisAST<?> thenBranch = then.size() == 1
                     ? then.get(0)
                     : new All(meta, then);
-            return new ConditionalSideEffect(meta, expression(ifOp.getCond()), thenBranch);
+            return ConstantFolding.fold(new ConditionalSideEffect(meta, expression(ifOp.getCond()), thenBranch));
         }
 
         private static List<ProtelisAST<?>> invocationArguments(@Nonnull final InvocationArguments args) {
@@ -634,7 +966,7 @@ public final class ProtelisLoader {
                 return new Constant<>(meta, ((StringVal) expression).getVal());
             }
             if (expression instanceof TupleVal) {
-                return new CreateTuple(meta, expressionList(((TupleVal) expression).getArgs()));
+                return ConstantFolding.fold(new CreateTuple(meta, expressionList(((TupleVal) expression).getArgs())));
             }
             throw new IllegalStateException("Unknown scalar of type " + expression.getClass().getSimpleName());
         }
@@ -683,22 +1015,30 @@ public final class ProtelisLoader {
                 /*
                  * JVMFeature is not serializable
                  */
-                return new JvmConstant(meta, new JVMEntity((JvmFeature) ref));
+                final JVMEntity entity = new JVMEntity((JvmFeature) ref);
+                final Object constant = entity.getConstantValue();
+                return constant == null ? new JvmConstant(meta, entity) : new Constant<>(meta, constant);
             }
             if (ref instanceof FunctionDef) {
-                final FunctionDef functionDefinition = (FunctionDef) ref;
-                FunctionDefinition target;
-                try {
-                    target = VIRTUAL_METHOD_TABLE.get(functionDefinition,
-                            () -> new FunctionDefinition(functionDefinition, () -> functionBody(functionDefinition)));
-                    return new Constant<>(meta, target);
-                } catch (ExecutionException e) {
-                    throw new IllegalStateException(e);
-                }
+                return new Constant<>(meta, function((FunctionDef) ref));
             }
             return new Variable(meta, referenceFor(ref));
         }
 
+        /*
+         * Functions of precompiled modules are used as they are, without
+         * building their bodies
+         */
+        private static FunctionDefinition function(final FunctionDef functionDefinition) {
+            try {
+                return VIRTUAL_METHOD_TABLE.get(functionDefinition,
+                        () -> PrecompiledModules.lookup(functionDefinition, inliningThreshold)
+                            .orElseGet(() -> new FunctionDefinition(functionDefinition, () -> functionBody(functionDefinition))));
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
         @SuppressWarnings("unchecked")
         private static <T> ProtelisAST<T> variableUnsafe(final VarUse expression) {
             return (ProtelisAST<T>) variable(expression);
@@ -714,6 +1054,28 @@ public final class ProtelisLoader {
 
     }
 
+    /*
+     * The Xtext resource set shared by the threads with the same context class
+     * loader, along with the URIs of the modules already linked. Resource sets
+     * are not thread safe: the shared one must be accessed holding its lock,
+     * while sources get parsed in new resource sets.
+     */
+    private static final class ModuleSet {
+        private final Injector guiceInjector;
+        private final XtextResourceSet xtext;
+        private final Map<Object, Object> parseOnly;
+        private final Set<String> loaded = ConcurrentHashMap.newKeySet();
+        private ModuleSet() {
+            guiceInjector = new ProtelisStandaloneSetup().createInjectorAndDoEMFRegistration();
+            xtext = newResourceSet();
+            parseOnly = new HashMap<>(xtext.getLoadOptions());
+            xtext.addLoadOption(XtextResource.OPTION_RESOLVE_ALL, Boolean.TRUE);
+        }
+        private XtextResourceSet newResourceSet() {
+            return guiceInjector.getInstance(XtextResourceSet.class);
+        }
+    }
+
     private static final class ResolvedResource {
         private static final String CLASSPATH_PROTOCOL = "classpath:";
         private final String classpathURL;
@@ -728,6 +1090,15 @@ public final class ProtelisLoader {
         private InputStream openStream() {
             return Thread.currentThread().getContextClassLoader().getResourceAsStream(classpathURL);
         }
+        @Nullable
+        private String read() {
+            try (InputStream is = openStream()) {
+                return is == null ? null : IOUtils.toString(is, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOGGER.warn("Could not read {}", this, e);
+                return null;
+            }
+        }
         @Override
         public String toString() {
             return "From classpath: " + classpathURL + ", complete URI: " + realURI;
@@ -3,7 +3,9 @@ package org.protelis.lang.datatype;
 import java.util.List;
 
 import org.protelis.lang.datatype.impl.ArrayTupleImpl;
+import org.protelis.lang.datatype.impl.DoubleTupleImpl;
 import org.protelis.lang.datatype.impl.FieldMapImpl;
+import org.protelis.lang.datatype.impl.PersistentTupleImpl;
 
 /**
  * Static factory for Protelis data types.
@@ -30,11 +32,21 @@ public final class DatatypeFactory {
     }
 
     /**
+     * Creates a new tuple. Small tuples are backed by an array (a primitive
+     * one if all the elements are {@link Double}s), larger ones by a
+     * persistent structure that makes updates cheaper.
+     *
      * @param l the elements
      * @return a new tuple
      */
     @SafeVarargs
     public static Tuple createTuple(final Object... l) {
+        if (l.length >= PersistentTupleImpl.MIN_SIZE) {
+            return PersistentTupleImpl.of(l);
+        }
+        if (l.length > 0 && DoubleTupleImpl.canHold(l)) {
+            return DoubleTupleImpl.of(l);
+        }
         return new ArrayTupleImpl(l);
     }
 
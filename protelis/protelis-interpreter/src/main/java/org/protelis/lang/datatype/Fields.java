@@ -5,6 +5,7 @@ import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
+import java.util.stream.IntStream;
 
 import org.protelis.lang.interpreter.util.TriFunction;
 
@@ -111,6 +112,52 @@ public final class Fields {
         return refField.map(id -> fun.apply(targetFor(fieldTarget, target, id), argumentsFor(args, fieldIndices, id)));
     }
 
+    /**
+     * Eager variant of {@link #apply(BiFunction, boolean, int[], Object, Object...)}
+     * which computes the values for all the devices in parallel, on the common
+     * fork-join pool. The function must be thread safe.
+     *
+     * @param fun          the function to apply. It must accept as a first argument
+     *                     the data type carried by the target, and an Object array
+     *                     as second argument (namely, it is a vararg)
+     * @param fieldTarget  true if the target is a field
+     * @param fieldIndices the indexes of which among the arguments are fields
+     * @param target       the object this method will be invoked on
+     * @param args         the arguments
+     * @param <T>    input field type
+     * @param <R>    result field type
+     * @return a new field resulting from the application of the {@link BiFunction}
+     *         to the target and the arguments
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, R> Field<R> applyInParallel(final BiFunction<T, Object[], R> fun, final boolean fieldTarget,
+            final int[] fieldIndices, final T target, final Object... args) {
+        if (!fieldTarget && fieldIndices.length == 0) {
+            throw new IllegalArgumentException(
+                    "To use this field application at least one of the parameters must be a field.");
+        }
+        final Field<?> refField = (Field<?>) (fieldTarget ? target : args[fieldIndices[0]]);
+        final DeviceUID[] ids = refField.keyStream().toArray(DeviceUID[]::new);
+        final Object[] results = new Object[ids.length];
+        IntStream.range(0, ids.length).parallel().forEach(i ->
+            results[i] = fun.apply(targetFor(fieldTarget, target, ids[i]), argumentsFor(args, fieldIndices, ids[i]))
+        );
+        /*
+         * The result is assembled sequentially, preserving the device order of the reference field
+         */
+        final DeviceUID local = refField.getLocalDevice();
+        final Field.Builder<R> builder = DatatypeFactory.createFieldBuilder();
+        R localValue = null;
+        for (int i = 0; i < ids.length; i++) {
+            if (local.equals(ids[i])) {
+                localValue = (R) results[i];
+            } else {
+                builder.add(ids[i], (R) results[i]);
+            }
+        }
+        return builder.build(local, localValue);
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> T targetFor(final boolean fieldTarget, final T target, final DeviceUID id) {
         return fieldTarget ? ((Field<T>) target).get(id) : target;
@@ -12,11 +12,13 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gnu.trove.list.array.TByteArrayList;
 import org.protelis.lang.ProtelisLoadingUtilities;
 import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.util.Bytecode;
 import org.protelis.lang.interpreter.util.Reference;
 import org.protelis.parser.protelis.FunctionDef;
 import org.protelis.parser.protelis.Lambda;
 import org.protelis.parser.protelis.ShortLambda;
 import org.protelis.parser.protelis.VarDef;
+import org.protelis.vm.ExecutionContext;
 
 import java.io.IOException;
 import java.io.Serializable;
@@ -33,7 +35,8 @@ import java.util.stream.Collectors;
  * First-class Protelis function.
  */
 @SuppressFBWarnings(value = "SE_TRANSIENT_FIELD_NOT_RESTORED",
-justification = "No need to recover the field, as the body is always generated before serialization")
+justification = "No need to recover the body supplier, as the body is always generated before serialization, "
+        + "and the call frame gets rebuilt from the stack code")
 public final class FunctionDefinition implements Serializable {
 
     private static final long serialVersionUID = 1;
@@ -42,8 +45,9 @@ public final class FunctionDefinition implements Serializable {
     private final String functionName;
     private final boolean initializeIt;
     private final TByteArrayList stackCode;
+    private transient volatile byte[] callFrame;
     private final transient Supplier<ProtelisAST<?>> bodySupplier;
-    private ProtelisAST<?> cleanBody;
+    private volatile ProtelisAST<?> cleanBody;
 
     /**
      * @param functionDefinition original parsed function
@@ -97,10 +101,106 @@ public final class FunctionDefinition implements Serializable {
         final ByteBuffer bb = ByteBuffer.allocate(asciibytes.length + 1);
         bb.put((byte) argNumber);
         bb.put(asciibytes);
-        stackCode = new TByteArrayList(bb.array());
+        callFrame = bb.array();
+        stackCode = new TByteArrayList(callFrame);
         this.bodySupplier = bodySupplier;
     }
 
+    /**
+     * Applies this function to already evaluated arguments, without building
+     * any AST node. Stack frames and bindings are the same of a
+     * {@link org.protelis.lang.interpreter.impl.FunctionCall} whose arguments
+     * are constants.
+     *
+     * @param context
+     *            the {@link ExecutionContext} of the caller
+     * @param arguments
+     *            the function arguments
+     * @return the result of the evaluation
+     */
+    public Object apply(final ExecutionContext context, final Object... arguments) {
+        checkArguments(arguments.length);
+        enter(context);
+        for (int i = 0; i < arguments.length; i++) {
+            bind(context, i, arguments[i]);
+        }
+        return evaluateBody(context);
+    }
+
+    /**
+     * Single argument version of {@link #apply(ExecutionContext, Object...)},
+     * which does not allocate the argument array.
+     *
+     * @param context
+     *            the {@link ExecutionContext} of the caller
+     * @param argument
+     *            the function argument
+     * @return the result of the evaluation
+     */
+    public Object apply(final ExecutionContext context, final Object argument) {
+        checkArguments(1);
+        enter(context);
+        bind(context, 0, argument);
+        return evaluateBody(context);
+    }
+
+    /**
+     * Two arguments version of {@link #apply(ExecutionContext, Object...)},
+     * which does not allocate the argument array.
+     *
+     * @param context
+     *            the {@link ExecutionContext} of the caller
+     * @param first
+     *            the first function argument
+     * @param second
+     *            the second function argument
+     * @return the result of the evaluation
+     */
+    public Object apply(final ExecutionContext context, final Object first, final Object second) {
+        checkArguments(2);
+        enter(context);
+        bind(context, 0, first);
+        bind(context, 1, second);
+        return evaluateBody(context);
+    }
+
+    private void checkArguments(final int count) {
+        if (initializeIt ? count > 1 : count != argNumber) {
+            throw new IllegalArgumentException(this + " must be invoked with "
+                    + (initializeIt ? "none or one argument (it)" : argNumber + " arguments")
+                    + ", but was invoked with " + count);
+        }
+    }
+
+    private void enter(final ExecutionContext context) {
+        context.newCallStackFrame(Bytecode.FUNCTION_CALL.getCode());
+        context.newCallStackFrame(getCallFrame());
+    }
+
+    /*
+     * The frame is a copy of the stack code, kept to avoid copying it at each
+     * call. It is not serialized, and gets rebuilt at the first call.
+     */
+    private byte[] getCallFrame() {
+        byte[] frame = callFrame;
+        if (frame == null) {
+            frame = stackCode.toArray();
+            callFrame = frame;
+        }
+        return frame;
+    }
+
+    private void bind(final ExecutionContext context, final int position, final Object value) {
+        context.putVariable(initializeIt ? ProtelisLoadingUtilities.IT : args.get(position), value);
+    }
+
+    private Object evaluateBody(final ExecutionContext context) {
+        final Object result = getBody().eval(context);
+        context.returnFromCallFrame();
+        context.returnFromCallFrame();
+        return result;
+    }
+
     @Override
     public boolean equals(final Object o) {
         if (this == o) {
@@ -127,10 +227,17 @@ public final class FunctionDefinition implements Serializable {
      *         are cleared. No side effects.
      */
     public ProtelisAST<?> getBody() {
-        if (cleanBody == null) {
-            cleanBody = bodySupplier.get();
+        ProtelisAST<?> body = cleanBody;
+        if (body == null) {
+            synchronized (this) {
+                body = cleanBody;
+                if (body == null) {
+                    body = bodySupplier.get();
+                    cleanBody = body;
+                }
+            }
         }
-        return cleanBody;
+        return body;
     }
 
     /**
@@ -47,6 +47,22 @@ public final class JVMEntity implements Serializable {
         memberType = SupportedEntityTypes.METHOD;
     }
 
+    /**
+     * @return the value of the referenced field if it was known when this
+     *         entity was created (e.g., a static final constant such as
+     *         Math.PI) or it has already been read, null otherwise
+     */
+    public Object getConstantValue() {
+        return memberType == SupportedEntityTypes.FIELD ? value : null;
+    }
+
+    /**
+     * @return true if this entity is a method
+     */
+    public boolean isMethod() {
+        return memberType == SupportedEntityTypes.METHOD;
+    }
+
     /**
      * @return the simple name of this entity
      */
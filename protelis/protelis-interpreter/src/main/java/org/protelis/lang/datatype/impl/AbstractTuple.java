@@ -0,0 +1,462 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.datatype.impl;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.vm.ExecutionContext;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Core functionality shared by all the {@link Tuple} implementations.
+ * Operations are written in terms of {@link #get(int)} and {@link #size()},
+ * implementations are expected to override those that can exploit their
+ * internal representation. Equality, hashing, comparison and printing only
+ * depend on the tuple content, and are thus consistent across
+ * implementations.
+ */
+public abstract class AbstractTuple implements Tuple {
+
+    @SuppressWarnings("unchecked")
+    static final Comparator<Object> COMPARE_TO = (a, b) -> {
+        if (a instanceof Comparable && b instanceof Comparable) {
+            try {
+                return ((Comparable<Object>) a).compareTo((Comparable<?>) b);
+            } catch (RuntimeException e) { // NOPMD: this is done by purpose
+                return compareLexicographically(a, b);
+            }
+        }
+        return compareLexicographically(a, b);
+    };
+    private static final long serialVersionUID = 1L;
+    private int hash;
+    private String string;
+
+    @Override
+    public Tuple append(final Object element) {
+        return insert(size(), element);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public int compareTo(final Tuple o) {
+        int res = 0;
+        final int size = size();
+        final int otherSize = o.size();
+        for (int i = 0; res == 0 && i < size && i < otherSize; i++) {
+            final Object o1 = get(i);
+            final Object o2 = o.get(i);
+            if (o1 instanceof Comparable && o2 instanceof Comparable) {
+                try {
+                    res = ((Comparable<Object>) o1).compareTo((Comparable<?>) o2);
+                } catch (ClassCastException ex) {
+                    /*
+                     * Uncomparable, go lexicographically
+                     */
+                    res = o1.toString().compareTo(o2.toString());
+                }
+            } else {
+                /*
+                 * Fall back to lexicographic comparison
+                 */
+                return o1.toString().compareTo(o2.toString());
+            }
+        }
+        if (res == 0 && size != otherSize) {
+            /*
+             * Same content but different size: shortest is smaller
+             */
+            if (size > otherSize) {
+                return 1;
+            }
+            return -1;
+        }
+        return res;
+    }
+
+    @Override
+    public boolean contains(final Object element) {
+        return indexof(element) >= 0;
+    }
+
+    @Override
+    public boolean containsAll(final Iterable<?> element) {
+        for (final Object obj: element) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof Tuple) {
+            final Tuple t = (Tuple) o;
+            final int size = size();
+            if (t.size() == size) {
+                for (int i = 0; i < size; i++) {
+                    if (!get(i).equals(t.get(i))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Tuple filter(final ExecutionContext ctx, final FunctionDefinition fun) {
+        Objects.requireNonNull(fun);
+        if (fun.getParameterCount() == 1 || fun.invokerShouldInitializeIt()) {
+            final int size = size();
+            final Object[] result = new Object[size];
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                final Object elem = get(i);
+                ctx.newCallStackFrame(i);
+                final Object outcome = fun.apply(ctx, elem);
+                ctx.returnFromCallFrame();
+                if (outcome instanceof Boolean) {
+                    if ((Boolean) outcome) {
+                        result[kept++] = elem;
+                    }
+                } else {
+                    throw new IllegalArgumentException("Filtering functions must return boolean.");
+                }
+            }
+            return DatatypeFactory.createTuple(kept == size ? result : Arrays.copyOf(result, kept));
+        }
+        throw new IllegalArgumentException("Filtering function must take one parameter.");
+    }
+
+    @Override
+    public Tuple filter(final Predicate<Object> fun) {
+        Objects.requireNonNull(fun);
+        return DatatypeFactory.createTuple(stream().filter(fun).toArray());
+    }
+
+    /**
+     * Compatibility method to speed up calls made using doubles.
+     *
+     * @param i
+     *            the element position (will be floored to int)
+     * @return the i-th element
+     */
+    public Object get(final double i) {
+        return get((int) i);
+    }
+
+    /**
+     * Compatibility method to speed up calls made using doubles.
+     *
+     * @param i
+     *            the element position (will be floored to int)
+     * @return the i-th element
+     */
+    public Object get(final Double i) {
+        return get(i.intValue());
+    }
+
+    @Override
+    public int hashCode() {
+        if (hash == 0) {
+            final Hasher hasher = Hashing.murmur3_32().newHasher();
+            for (final Object it: this) {
+                hasher.putInt(it.hashCode());
+            }
+            hash = hasher.hash().asInt();
+        }
+        return hash;
+    }
+
+    @Override
+    public Object head() {
+        return get(0);
+    }
+
+    @Override
+    public int indexof(final Object element) {
+        int i = 0;
+        for (final Object it: this) {
+            if (it.equals(element)) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    @Override
+    public Tuple insert(final int i, final Object element) {
+        final int size = size();
+        if (i < 0 || i > size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Length: " + size);
+        }
+        final Object[] result = new Object[size + 1];
+        for (int j = 0; j < i; j++) {
+            result[j] = get(j);
+        }
+        result[i] = element;
+        for (int j = i; j < size; j++) {
+            result[j + 1] = get(j);
+        }
+        return DatatypeFactory.createTuple(result);
+    }
+
+    @Override
+    public Tuple intersection(final Tuple t) {
+        return SetTupleImpl.distinct(Iterables.filter(this, membership(t)::test));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(next++);
+            }
+        };
+    }
+
+    @Override
+    public Tuple map(final ExecutionContext ctx, final FunctionDefinition fun) {
+        if (fun.getParameterCount() == 1 || fun.invokerShouldInitializeIt()) {
+            final int size = size();
+            final Object[] result = new Object[size];
+            for (int i = 0; i < size; i++) {
+                ctx.newCallStackFrame(i);
+                result[i] = fun.apply(ctx, get(i));
+                ctx.returnFromCallFrame();
+            }
+            return DatatypeFactory.createTuple(result);
+        }
+        throw new IllegalArgumentException("Mapping function must take one parameter.");
+    }
+
+    @Override
+    public Tuple map(final Function<Object, Object> fun) {
+        Objects.requireNonNull(fun);
+        return DatatypeFactory.createTuple(stream().map(fun).toArray());
+    }
+
+    @Override
+    public Object max(final Object def) {
+        return stream().max(COMPARE_TO).orElse(def);
+    }
+
+    @Override
+    public Tuple mergeAfter(final Tuple tuple) {
+        final int size = size();
+        final Object[] result = Arrays.copyOf(toArray(), size + tuple.size());
+        for (int i = size; i < result.length; i++) {
+            result[i] = tuple.get(i - size);
+        }
+        return DatatypeFactory.createTuple(result);
+    }
+
+    @Override
+    public Object min(final Object def) {
+        return stream().min(COMPARE_TO).orElse(def);
+    }
+
+    @Override
+    public Tuple prepend(final Object element) {
+        return insert(0, element);
+    }
+
+    @Override
+    public Object reduce(final ExecutionContext ctx, final Object defVal, final FunctionDefinition fun) {
+        Objects.requireNonNull(fun);
+        if (fun.getParameterCount() == 2) {
+            final int size = size();
+            if (size == 0) {
+                return defVal;
+            }
+            Object result = get(0);
+            for (int i = 1; i < size; i++) {
+                ctx.newCallStackFrame(i - 1);
+                result = fun.apply(ctx, result, get(i));
+                ctx.returnFromCallFrame();
+            }
+            return result;
+        }
+        throw new IllegalArgumentException("Reducing function must take two parameters.");
+    }
+
+    @Override
+    public Object reduce(final Object defVal, final BinaryOperator<Object> fun) {
+        return stream()
+            .reduce(Objects.requireNonNull(fun))
+            .orElse(Objects.requireNonNull(defVal));
+    }
+
+    @Override
+    public Tuple set(final int i, final Object element) {
+        final Object[] copy = toArray();
+        copy[i] = element;
+        return DatatypeFactory.createTuple(copy);
+    }
+
+    @Override
+    public Tuple sort() {
+        final Object[] newArray = toArray();
+        Arrays.sort(newArray, COMPARE_TO);
+        return DatatypeFactory.createTuple(newArray);
+    }
+
+    /**
+     * @return a sequential {@link Stream} over the tuple elements
+     */
+    protected Stream<Object> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliterator(iterator(), size(), Spliterator.ORDERED | Spliterator.IMMUTABLE),
+                false);
+    }
+
+    @Override
+    public Tuple subtract(final Tuple t) {
+        return SetTupleImpl.distinct(Iterables.filter(this, membership(t).negate()::test));
+    }
+
+    @Override
+    public Tuple subTuple(final int i, final int j) {
+        final int start = Math.min(Math.max(i, 0), size());
+        final int stop = Math.max(Math.min(j, size()), start);
+        final Object[] result = new Object[stop - start];
+        for (int k = start; k < stop; k++) {
+            result[k - start] = get(k);
+        }
+        return DatatypeFactory.createTuple(result);
+    }
+
+    @Override
+    public Tuple subTupleEnd(final int i) {
+        return subTuple(i, size());
+    }
+
+    @Override
+    public Tuple subTupleStart(final int i) {
+        return subTuple(0, i);
+    }
+
+    @Override
+    public Tuple tail() {
+        return subTupleEnd(1);
+    }
+
+    @Override
+    public Object[] toArray() {
+        final Object[] result = new Object[size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = get(i);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append('[');
+            for (final Object o : this) {
+                final boolean notNumber = !(o instanceof Number || o instanceof Tuple);
+                final boolean isString = o instanceof String;
+                if (isString) {
+                    sb.append('"');
+                } else if (notNumber) {
+                    sb.append('\'');
+                }
+                sb.append(o.toString());
+                if (isString) {
+                    sb.append('"');
+                } else if (notNumber) {
+                    sb.append('\'');
+                }
+                sb.append(", ");
+            }
+            if (!isEmpty()) {
+                sb.delete(sb.length() - 2, sb.length());
+            }
+            sb.append(']');
+            string = sb.toString();
+        }
+        return string;
+    }
+
+    @Override
+    public Tuple union(final Tuple t) {
+        return SetTupleImpl.distinct(Iterables.concat(this, t));
+    }
+
+    @Override
+    public Tuple unwrap(final int i) {
+        return DatatypeFactory.createTuple(stream().map((o) -> {
+            if (o instanceof Tuple) {
+                return ((Tuple) o).get(i);
+            }
+            return o;
+        }).toArray());
+    }
+
+    /**
+     * @param t
+     *            a tuple
+     * @return a {@link Predicate} testing whether an element is contained in
+     *         the tuple in constant time
+     */
+    static Predicate<Object> membership(final Tuple t) {
+        if (t instanceof SetTupleImpl) {
+            return t::contains;
+        }
+        return Sets.newHashSet(t)::contains;
+    }
+
+    private static int compareLexicographically(final Object a, final Object b) {
+        return a.toString().compareTo(b.toString());
+    }
+
+}
@@ -8,52 +8,28 @@
  *******************************************************************************/
 package org.protelis.lang.datatype.impl;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Sets;
-import com.google.common.hash.Hashing;
-import org.apache.commons.lang3.ArrayUtils;
 import org.protelis.lang.datatype.DatatypeFactory;
-import org.protelis.lang.datatype.FunctionDefinition;
 import org.protelis.lang.datatype.Tuple;
-import org.protelis.lang.interpreter.ProtelisAST;
-import org.protelis.lang.interpreter.impl.Constant;
-import org.protelis.lang.interpreter.impl.FunctionCall;
-import org.protelis.lang.interpreter.util.JavaInteroperabilityUtils;
-import org.protelis.vm.ExecutionContext;
 
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Objects;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
-import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 /**
  * Implementation of a Tuple using an array data structure.
+ *
+ * Sub-tuples (including {@link #tail()}) are views sharing the array of the
+ * original tuple, unless the hidden part of the array would be larger than
+ * the visible content, in which case a compact copy is made. Views get
+ * compacted when serialized.
  */
-public final class ArrayTupleImpl implements Tuple {
+public final class ArrayTupleImpl extends AbstractTuple {
 
-    @SuppressWarnings("unchecked")
-    private static final Comparator<Object> COMPARE_TO = (a, b) -> {
-        if (a instanceof Comparable && b instanceof Comparable) {
-            try {
-                return ((Comparable<Object>) a).compareTo((Comparable<?>) b);
-            } catch (RuntimeException e) { // NOPMD: this is done by purpose
-                return compareLexicographically(a, b);
-            }
-        }
-        return compareLexicographically(a, b);
-    };
     private static final long serialVersionUID = 5453783531251313649L;
     private final Object[] arrayContents;
-    private int hash;
-    private String string;
+    private final transient int offset;
+    private final transient int length;
 
     /**
      * @param base
@@ -65,177 +41,73 @@ public final class ArrayTupleImpl implements Tuple {
 
     /**
      * Create an ArrayTupleImpl with all elements initialized to a given value.
-     * 
+     *
      * @param value
      *            The value to initialize to
      * @param length
      *            The length of the tuple
      */
     public ArrayTupleImpl(final Object value, final int length) {
-        arrayContents = new Object[length];
-        for (int i = 0; i < length; i++) {
-            arrayContents[i] = value;
-        }
+        this(fill(value, length), false);
     }
 
     private ArrayTupleImpl(final Object[] base, final boolean copy) {
-        arrayContents = copy ? Arrays.copyOf(base, base.length) : base;
+        this(copy ? Arrays.copyOf(base, base.length) : base, 0, base.length);
     }
 
-    @Override
-    public Tuple append(final Object element) {
-        final Object[] copy = Arrays.copyOf(arrayContents, arrayContents.length + 1);
-        copy[arrayContents.length] = element;
-        return new ArrayTupleImpl(copy, false);
+    private ArrayTupleImpl(final Object[] base, final int offset, final int length) {
+        arrayContents = base;
+        this.offset = offset;
+        this.length = length;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
-    public int compareTo(final Tuple o) {
-        int res = 0;
-        final int otherSize = o.size();
-        for (int i = 0; res == 0 && i < arrayContents.length && i < otherSize; i++) {
-            final Object o1 = arrayContents[i];
-            final Object o2 = o.get(i);
-            if (o1 instanceof Comparable && o2 instanceof Comparable) {
-                try {
-                    res = ((Comparable<Object>) o1).compareTo((Comparable<?>) o2);
-                } catch (ClassCastException ex) {
-                    /*
-                     * Uncomparable, go lexicographically
-                     */
-                    res = o1.toString().compareTo(o2.toString());
-                }
-            } else {
-                /*
-                 * Fall back to lexicographic comparison
-                 */
-                return o1.toString().compareTo(o2.toString());
-            }
-        }
-        if (res == 0 && arrayContents.length != otherSize) {
+    public Tuple append(final Object element) {
+        if (length >= PersistentTupleImpl.MIN_SIZE) {
             /*
-             * Same content but different size: shortest is smaller
+             * Growing tuple: switch to a representation that does not copy on append
              */
-            if (arrayContents.length > otherSize) {
-                return 1;
-            }
-            return -1;
+            return PersistentTupleImpl.of(toArray()).append(element);
         }
-        return res;
-    }
-
-    @Override
-    public boolean contains(final Object element) {
-        return indexof(element) >= 0;
-    }
-
-    @Override
-    public boolean containsAll(final Iterable<?> element) {
-        for (final Object obj: element) {
-            if (!contains(obj)) {
-                return false;
-            }
-        }
-        return true;
+        final Object[] copy = Arrays.copyOfRange(arrayContents, offset, offset + length + 1);
+        copy[length] = element;
+        return new ArrayTupleImpl(copy, false);
     }
 
     @Override
     public boolean equals(final Object o) {
         if (o instanceof ArrayTupleImpl) {
-            return Arrays.equals(arrayContents, ((ArrayTupleImpl) o).arrayContents);
-        }
-        if (o instanceof Tuple) {
-            final Tuple t = (Tuple) o;
-            if ((int) t.size() == arrayContents.length) {
-                for (int i = 0; i < arrayContents.length; i++) {
-                    if (!arrayContents[i].equals(t.get(i))) {
-                        return false;
-                    }
+            final ArrayTupleImpl other = (ArrayTupleImpl) o;
+            if (length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!Objects.equals(arrayContents[offset + i], other.arrayContents[other.offset + i])) {
+                    return false;
                 }
-                return true;
             }
+            return true;
         }
-        return false;
-    }
-
-    @Override
-    public Tuple filter(final ExecutionContext ctx, final FunctionDefinition fun) {
-        Objects.requireNonNull(fun);
-        if (fun.getParameterCount() == 1 || fun.invokerShouldInitializeIt()) {
-            final AtomicInteger counter = new AtomicInteger();
-            return DatatypeFactory
-                    .createTuple(Arrays.stream(arrayContents)
-                        .filter(elem -> {
-                            final List<ProtelisAST<?>> arguments = elementAsArguments(elem);
-                            final FunctionCall fc = new FunctionCall(JavaInteroperabilityUtils.METADATA, fun, arguments);
-                            final Object outcome = ctx.runInNewStackFrame(counter.getAndIncrement(), fc::eval);
-                            if (outcome instanceof Boolean) {
-                                return (Boolean) outcome;
-                            } else {
-                                throw new IllegalArgumentException("Filtering functions must return boolean.");
-                            }
-                        })
-                        .toArray());
-        }
-        throw new IllegalArgumentException("Filtering function must take one parameter.");
-    }
-
-    @Override
-    public Tuple filter(final Predicate<Object> fun) {
-        Objects.requireNonNull(fun);
-        return DatatypeFactory.createTuple(Arrays.stream(arrayContents).filter(fun).toArray());
-    }
-
-    /**
-     * Compatibility method to speed up calls made using doubles.
-     * 
-     * @param i
-     *            the element position (will be floored to int)
-     * @return the i-th element
-     */
-    public Object get(final double i) {
-        return get((int) i);
-    }
-
-    /**
-     * Compatibility method to speed up calls made using doubles.
-     * 
-     * @param i
-     *            the element position (will be floored to int)
-     * @return the i-th element
-     */
-    public Object get(final Double i) {
-        return get(i.intValue());
+        return super.equals(o);
     }
 
     @Override
     public Object get(final int i) {
-        return arrayContents[i];
-    }
-
-    @Override
-    public int hashCode() {
-        if (hash == 0) {
-            hash = Hashing.murmur3_32().newHasher()
-                .putObject(arrayContents, (array, dest) -> {
-                    for (final Object it: array) {
-                        dest.putInt(it.hashCode());
-                    }
-                }).hash().asInt();
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException(i);
         }
-        return hash;
+        return arrayContents[offset + i];
     }
 
     @Override
-    public Object head() {
-        return get(0);
+    public int hashCode() {
+        return super.hashCode();
     }
 
     @Override
     public int indexof(final Object element) {
-        for (int i = 0; i < arrayContents.length; i++) {
-            if (arrayContents[i].equals(element)) {
+        for (int i = 0; i < length; i++) {
+            if (arrayContents[offset + i].equals(element)) {
                 return i;
             }
         }
@@ -244,136 +116,85 @@ public final class ArrayTupleImpl implements Tuple {
 
     @Override
     public Tuple insert(final int i, final Object element) {
-        return new ArrayTupleImpl(ArrayUtils.insert((int) i, arrayContents, element), false);
-    }
-
-    @Override
-    public Tuple intersection(final Tuple t) {
-        final Set<Object> l1 = Sets.newLinkedHashSet(this);
-        final Set<Object> l2 = Sets.newLinkedHashSet(t);
-        return new ArrayTupleImpl(Sets.intersection(l1, l2).toArray(), false);
+        if (i < 0 || i > length) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Length: " + length);
+        }
+        final Object[] result = new Object[length + 1];
+        System.arraycopy(arrayContents, offset, result, 0, i);
+        result[i] = element;
+        System.arraycopy(arrayContents, offset + i, result, i + 1, length - i);
+        return new ArrayTupleImpl(result, false);
     }
 
     @Override
     public boolean isEmpty() {
-        return arrayContents.length == 0;
+        return length == 0;
     }
 
     @Override
     public Iterator<Object> iterator() {
-        return Iterators.forArray(arrayContents);
-    }
-
-    @Override
-    public Tuple map(final ExecutionContext ctx, final FunctionDefinition fun) {
-        if (fun.getParameterCount() == 1 || fun.invokerShouldInitializeIt()) {
-            final AtomicInteger counter = new AtomicInteger();
-            return DatatypeFactory.createTuple(Arrays.stream(arrayContents)
-                .map(elem -> {
-                    final FunctionCall fc = new FunctionCall(JavaInteroperabilityUtils.METADATA, fun, elementAsArguments(elem));
-                    return ctx.runInNewStackFrame(counter.getAndIncrement(), fc::eval);
-                })
-                .toArray());
-        }
-        throw new IllegalArgumentException("Mapping function must take one parameter.");
-    }
-
-    @Override
-    public Tuple map(final Function<Object, Object> fun) {
-        Objects.requireNonNull(fun);
-        return DatatypeFactory.createTuple(Arrays.stream(arrayContents).map(fun).toArray());
-    }
-
-    @Override
-    public Object max(final Object def) {
-        return Arrays.stream(arrayContents).max(COMPARE_TO).orElse(def);
+        return Arrays.asList(arrayContents).subList(offset, offset + length).iterator();
     }
 
     @Override
     public Tuple mergeAfter(final Tuple tuple) {
         if (tuple instanceof ArrayTupleImpl) {
-            return new ArrayTupleImpl(ArrayUtils.addAll(arrayContents, ((ArrayTupleImpl) tuple).arrayContents), false);
-        }
-        final Object[] copy = new Object[arrayContents.length + (int) tuple.size()];
-        System.arraycopy(arrayContents, 0, copy, 0, arrayContents.length);
-        for (int i = 0; i < copy.length; i++) {
-            copy[i] = tuple.get(i - arrayContents.length);
-        }
-        return new ArrayTupleImpl(copy, false);
-    }
-
-    @Override
-    public Object min(final Object def) {
-        return Arrays.stream(arrayContents).min(COMPARE_TO).orElse(def);
-    }
-
-    @Override
-    public Tuple prepend(final Object element) {
-        return insert(0, element);
-    }
-
-    @Override
-    public Object reduce(final ExecutionContext ctx, final Object defVal, final FunctionDefinition fun) {
-        Objects.requireNonNull(fun);
-        if (fun.getParameterCount() == 2) {
-            final AtomicInteger counter = new AtomicInteger();
-            return Arrays.stream(arrayContents)
-                .reduce((first, second) -> {
-                    final List<ProtelisAST<?>> arguments = ImmutableList.of(
-                            new Constant<>(JavaInteroperabilityUtils.METADATA, first),
-                            new Constant<>(JavaInteroperabilityUtils.METADATA, second)
-                    );
-                    final FunctionCall call = new FunctionCall(JavaInteroperabilityUtils.METADATA, fun, arguments);
-                    return ctx.runInNewStackFrame(counter.getAndIncrement(), call::eval);
-                })
-                .orElse(defVal);
+            final ArrayTupleImpl other = (ArrayTupleImpl) tuple;
+            final Object[] result = Arrays.copyOfRange(arrayContents, offset, offset + length + other.length);
+            System.arraycopy(other.arrayContents, other.offset, result, length, other.length);
+            return DatatypeFactory.createTuple(result);
         }
-        throw new IllegalArgumentException("Reducing function must take two parameters.");
-    }
-
-    @Override
-    public Object reduce(final Object defVal, final BinaryOperator<Object> fun) {
-        return Arrays.stream(arrayContents)
-            .reduce(Objects.requireNonNull(fun))
-            .orElse(Objects.requireNonNull(defVal));
+        return super.mergeAfter(tuple);
     }
 
     @Override
     public Tuple set(final int i, final Object element) {
-        final Object[] copy = Arrays.copyOf(arrayContents, arrayContents.length);
+        final Object[] copy = toArray();
         copy[(int) i] = element;
         return new ArrayTupleImpl(copy, false);
     }
 
     @Override
     public int size() {
-        return arrayContents.length;
+        return length;
     }
 
     @Override
-    public Tuple sort() {
-        final Object[] newArray = Arrays.copyOf(arrayContents, arrayContents.length);
-        Arrays.sort(newArray, COMPARE_TO);
-        return DatatypeFactory.createTuple(newArray);
-    }
-
-    @Override
-    public Tuple subtract(final Tuple t) {
-        final Set<Object> l = Sets.newLinkedHashSet(this);
-        for (final Object o : t) {
-            l.remove(o);
-        }
-        return DatatypeFactory.createTuple(l.toArray());
+    protected Stream<Object> stream() {
+        return Arrays.stream(arrayContents, offset, offset + length);
     }
 
+    /**
+     * Indexes are clamped to the tuple boundaries, and an empty tuple is
+     * returned if j is not greater than i. The returned tuple shares the
+     * storage with this one, unless it would use less than half of it.
+     *
+     * @param i
+     *            start index
+     * @param j
+     *            end index
+     * @return a tuple with elements i through j-1
+     */
     @Override
     public ArrayTupleImpl subTuple(final int i, final int j) {
-        return new ArrayTupleImpl(ArrayUtils.subarray(arrayContents, (int) i, (int) j), false);
+        final int start = Math.min(Math.max(i, 0), length);
+        final int end = Math.min(j, length);
+        if (start == 0 && end == length) {
+            return this;
+        }
+        final int newLength = Math.max(end - start, 0);
+        if (arrayContents.length - newLength > newLength) {
+            /*
+             * The hidden part would be larger than the content: compact
+             */
+            return new ArrayTupleImpl(Arrays.copyOfRange(arrayContents, offset + start, offset + start + newLength), false);
+        }
+        return new ArrayTupleImpl(arrayContents, offset + start, newLength);
     }
 
     @Override
     public ArrayTupleImpl subTupleEnd(final int i) {
-        return subTuple(i, arrayContents.length);
+        return subTuple(i, length);
     }
 
     @Override
@@ -381,67 +202,26 @@ public final class ArrayTupleImpl implements Tuple {
         return subTuple(0, i);
     }
 
-    @Override
-    public Tuple tail() {
-        return subTupleEnd(1);
-    }
-
     @Override
     public Object[] toArray() {
-        return arrayContents.clone();
+        return Arrays.copyOfRange(arrayContents, offset, offset + length);
     }
 
-    @Override
-    public String toString() {
-        if (string == null) {
-            final StringBuilder sb = new StringBuilder();
-            sb.append('[');
-            for (final Object o : arrayContents) {
-                final boolean notNumber = !(o instanceof Number || o instanceof Tuple);
-                final boolean isString = o instanceof String;
-                if (isString) {
-                    sb.append('"');
-                } else if (notNumber) {
-                    sb.append('\'');
-                }
-                sb.append(o.toString());
-                if (isString) {
-                    sb.append('"');
-                } else if (notNumber) {
-                    sb.append('\'');
-                }
-                sb.append(", ");
-            }
-            if (arrayContents.length > 0) {
-                sb.delete(sb.length() - 2, sb.length());
-            }
-            sb.append(']');
-            string = sb.toString();
+    private Object writeReplace() {
+        if (offset == 0 && length == arrayContents.length) {
+            return this;
         }
-        return string;
-    }
-
-    @Override
-    public ArrayTupleImpl union(final Tuple t) {
-        return new ArrayTupleImpl(Sets.newLinkedHashSet(Iterables.concat(this, t)).toArray(), false);
-    }
-
-    @Override
-    public Tuple unwrap(final int i) {
-        return DatatypeFactory.createTuple(Arrays.stream(arrayContents).map((o) -> {
-            if (o instanceof Tuple) {
-                return ((Tuple) o).get(i);
-            }
-            return o;
-        }).toArray());
+        return new ArrayTupleImpl(toArray(), false);
     }
 
-    private static int compareLexicographically(final Object a, final Object b) {
-        return a.toString().compareTo(b.toString());
+    private Object readResolve() {
+        return new ArrayTupleImpl(arrayContents, false);
     }
 
-    private static List<ProtelisAST<?>> elementAsArguments(final Object element) {
-        return ImmutableList.of(new Constant<>(JavaInteroperabilityUtils.METADATA, element));
+    private static Object[] fill(final Object value, final int length) {
+        final Object[] result = new Object[length];
+        Arrays.fill(result, value);
+        return result;
     }
 
 }
@@ -0,0 +1,337 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.datatype.impl;
+
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+import java.util.stream.Stream;
+
+import org.protelis.lang.datatype.Tuple;
+
+/**
+ * Implementation of a Tuple of {@link Double}s, backed by a primitive array.
+ * Vector arithmetic, sorting, minimum, maximum, and reductions with
+ * operators that also implement {@link DoubleBinaryOperator} run on the
+ * primitive values. Inserting a value that is not a {@link Double} produces a
+ * generic tuple.
+ *
+ * Sub-tuples (including {@link #tail()}) are views sharing the array of the
+ * original tuple, unless the hidden part of the array would be larger than
+ * the visible content, in which case a compact copy is made. Views get
+ * compacted when serialized.
+ */
+public final class DoubleTupleImpl extends AbstractTuple {
+
+    private static final long serialVersionUID = 1L;
+    private final double[] values;
+    private final transient int offset;
+    private final transient int length;
+
+    /**
+     * @param values
+     *            the elements
+     */
+    public DoubleTupleImpl(final double... values) {
+        this(values, true);
+    }
+
+    private DoubleTupleImpl(final double[] values, final boolean copy) {
+        this(copy ? Arrays.copyOf(values, values.length) : values, 0, values.length);
+    }
+
+    private DoubleTupleImpl(final double[] values, final int offset, final int length) {
+        this.values = values;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param elements
+     *            the elements
+     * @return true if all the elements are {@link Double}s
+     */
+    public static boolean canHold(final Object[] elements) {
+        for (final Object element : elements) {
+            if (!(element instanceof Double)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param elements
+     *            the elements, which must all be {@link Double}s
+     * @return a new tuple with the provided elements
+     * @throws IllegalArgumentException
+     *             if some element is not a {@link Double}
+     */
+    public static DoubleTupleImpl of(final Object[] elements) {
+        if (!canHold(elements)) {
+            throw new IllegalArgumentException(Arrays.toString(elements) + " contains non-Double elements");
+        }
+        final double[] unboxed = new double[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            unboxed[i] = (Double) elements[i];
+        }
+        return new DoubleTupleImpl(unboxed, false);
+    }
+
+    @Override
+    public Tuple append(final Object element) {
+        if (length >= PersistentTupleImpl.MIN_SIZE) {
+            return PersistentTupleImpl.of(toArray()).append(element);
+        }
+        return insert(length, element);
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (o instanceof DoubleTupleImpl) {
+            final DoubleTupleImpl other = (DoubleTupleImpl) o;
+            if (length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (Double.doubleToLongBits(getDouble(i)) != Double.doubleToLongBits(other.getDouble(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public Object get(final int i) {
+        return getDouble(i);
+    }
+
+    /**
+     * @param i
+     *            Zero-based index of the element to be retrieved
+     * @return the element at index i, without boxing
+     */
+    public double getDouble(final int i) {
+        if (i < 0 || i >= length) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return values[offset + i];
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public int indexof(final Object element) {
+        if (element instanceof Double) {
+            final long bits = Double.doubleToLongBits((Double) element);
+            for (int i = 0; i < length; i++) {
+                if (Double.doubleToLongBits(values[offset + i]) == bits) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Tuple insert(final int i, final Object element) {
+        if (element instanceof Double) {
+            if (i < 0 || i > length) {
+                throw new IndexOutOfBoundsException("Index: " + i + ", Length: " + length);
+            }
+            final double[] result = new double[length + 1];
+            System.arraycopy(values, offset, result, 0, i);
+            result[i] = (Double) element;
+            System.arraycopy(values, offset + i, result, i + 1, length - i);
+            return new DoubleTupleImpl(result, false);
+        }
+        return super.insert(i, element);
+    }
+
+    /**
+     * Applies a function to each element.
+     *
+     * @param fun
+     *            the function
+     * @return a new tuple with the results
+     */
+    public DoubleTupleImpl mapDoubles(final DoubleUnaryOperator fun) {
+        final double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = fun.applyAsDouble(values[offset + i]);
+        }
+        return new DoubleTupleImpl(result, false);
+    }
+
+    @Override
+    public Object max(final Object def) {
+        final int best = select(1);
+        return best < 0 ? def : values[best];
+    }
+
+    @Override
+    public Object min(final Object def) {
+        final int best = select(-1);
+        return best < 0 ? def : values[best];
+    }
+
+    @Override
+    public Object reduce(final Object defVal, final BinaryOperator<Object> fun) {
+        if (fun instanceof DoubleBinaryOperator && length > 0) {
+            final DoubleBinaryOperator primitive = (DoubleBinaryOperator) fun;
+            double result = values[offset];
+            for (int i = offset + 1; i < offset + length; i++) {
+                result = primitive.applyAsDouble(result, values[i]);
+            }
+            return result;
+        }
+        return super.reduce(defVal, fun);
+    }
+
+    @Override
+    public Tuple set(final int i, final Object element) {
+        if (element instanceof Double) {
+            final double[] result = toDoubleArray();
+            result[i] = (Double) element;
+            return new DoubleTupleImpl(result, false);
+        }
+        return super.set(i, element);
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public Tuple sort() {
+        final double[] result = toDoubleArray();
+        Arrays.sort(result);
+        return new DoubleTupleImpl(result, false);
+    }
+
+    @Override
+    protected Stream<Object> stream() {
+        return Arrays.stream(values, offset, offset + length).mapToObj(Double::valueOf);
+    }
+
+    /**
+     * Indexes are clamped to the tuple boundaries, and an empty tuple is
+     * returned if j is not greater than i. The returned tuple shares the
+     * storage with this one, unless it would use less than half of it.
+     *
+     * @param i
+     *            start index
+     * @param j
+     *            end index
+     * @return a tuple with elements i through j-1
+     */
+    @Override
+    public DoubleTupleImpl subTuple(final int i, final int j) {
+        final int start = Math.min(Math.max(i, 0), length);
+        final int end = Math.min(j, length);
+        if (start == 0 && end == length) {
+            return this;
+        }
+        final int newLength = Math.max(end - start, 0);
+        if (values.length - newLength > newLength) {
+            /*
+             * The hidden part would be larger than the content: compact
+             */
+            return new DoubleTupleImpl(Arrays.copyOfRange(values, offset + start, offset + start + newLength), false);
+        }
+        return new DoubleTupleImpl(values, offset + start, newLength);
+    }
+
+    @Override
+    public DoubleTupleImpl subTupleEnd(final int i) {
+        return subTuple(i, length);
+    }
+
+    @Override
+    public DoubleTupleImpl subTupleStart(final int i) {
+        return subTuple(0, i);
+    }
+
+    @Override
+    public Object[] toArray() {
+        final Object[] result = new Object[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = values[offset + i];
+        }
+        return result;
+    }
+
+    /**
+     * @return a copy of the elements, as primitive array
+     */
+    public double[] toDoubleArray() {
+        return Arrays.copyOfRange(values, offset, offset + length);
+    }
+
+    /**
+     * Applies a function to the pairs of elements with the same index.
+     *
+     * @param other
+     *            a tuple of the same size
+     * @param fun
+     *            the function, receiving the element of this tuple first
+     * @return a new tuple with the results
+     * @throws IllegalArgumentException
+     *             if the tuples have a different size
+     */
+    public DoubleTupleImpl zipWith(final DoubleTupleImpl other, final DoubleBinaryOperator fun) {
+        if (length != other.length) {
+            throw new IllegalArgumentException("Size mismatch between " + this + " and " + other);
+        }
+        final double[] result = new double[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = fun.applyAsDouble(values[offset + i], other.values[other.offset + i]);
+        }
+        return new DoubleTupleImpl(result, false);
+    }
+
+    /**
+     * Same selection rule of {@link java.util.stream.Stream#min} and
+     * {@link java.util.stream.Stream#max} on boxed values: on ties, the first
+     * element wins.
+     *
+     * @param sign
+     *            1 to select the maximum, -1 to select the minimum
+     * @return the position of the selected element in the backing array, or
+     *         -1 if the tuple is empty
+     */
+    private int select(final int sign) {
+        int best = -1;
+        for (int i = offset; i < offset + length; i++) {
+            if (best < 0 || sign * Double.compare(values[i], values[best]) > 0) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private Object writeReplace() {
+        if (offset == 0 && length == values.length) {
+            return this;
+        }
+        return new DoubleTupleImpl(toDoubleArray(), false);
+    }
+
+    private Object readResolve() {
+        return new DoubleTupleImpl(values, false);
+    }
+
+}
@@ -16,6 +16,7 @@ import org.protelis.lang.datatype.Field;
 
 import javax.annotation.Nonnull;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.stream.Stream;
 
 /**
@@ -41,6 +42,15 @@ public final class FieldMapImpl<T> extends AbstractField<T> { // NOPMD: a builde
         return values.containsKey(id);
     }
 
+    @Override
+    public T get(@Nonnull final DeviceUID id) {
+        final T result = values.get(id);
+        if (result == null) {
+            throw new NoSuchElementException("Device " + id + " is not available in field " + this);
+        }
+        return result;
+    }
+
     @Override
     public DeviceUID getLocalDevice() {
         return local;
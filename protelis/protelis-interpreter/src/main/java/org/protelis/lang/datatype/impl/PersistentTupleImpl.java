@@ -0,0 +1,296 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.datatype.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Tuple;
+
+/**
+ * Persistent implementation of a Tuple, based on a 32-way bit-partitioned
+ * trie with a tail buffer. Updates share structure with the original tuple:
+ * {@link #append(Object)} and {@link #set(int, Object)} copy a logarithmic
+ * number of nodes. Sub-tuples, including {@link #tail()}, are constant-time
+ * views on the same trie, unless the hidden part would grow larger than the
+ * visible content, in which case a compact copy is made.
+ *
+ * Tuples built by accumulation (e.g., history buffers kept in a rep) can thus
+ * grow without quadratic cost.
+ */
+public final class PersistentTupleImpl extends AbstractTuple {
+
+    /**
+     * Minimum size for which a persistent tuple is preferred over an array
+     * backed one.
+     */
+    public static final int MIN_SIZE = 32;
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final Object[] EMPTY_NODE = new Object[WIDTH];
+    private static final long serialVersionUID = 1L;
+    private final transient int count;
+    private final transient int shift;
+    private final transient Object[] root;
+    private final transient Object[] tailBuffer;
+    private final transient int offset;
+    private final transient int end;
+
+    private PersistentTupleImpl(
+            final int count,
+            final int shift,
+            final Object[] root,
+            final Object[] tailBuffer,
+            final int offset,
+            final int end) {
+        this.count = count;
+        this.shift = shift;
+        this.root = root;
+        this.tailBuffer = tailBuffer;
+        this.offset = offset;
+        this.end = end;
+    }
+
+    /**
+     * @param elements
+     *            the elements
+     * @return a new persistent tuple with the provided elements
+     */
+    public static PersistentTupleImpl of(final Object... elements) {
+        final int size = elements.length;
+        final int tailOffset = tailOffset(size);
+        Object[] root = EMPTY_NODE;
+        int shift = BITS;
+        for (int start = 0; start < tailOffset; start += WIDTH) {
+            final Object[] leaf = Arrays.copyOfRange(elements, start, start + WIDTH);
+            final int filled = start + WIDTH;
+            if ((filled >>> BITS) > (1 << shift)) {
+                final Object[] newRoot = new Object[WIDTH];
+                newRoot[0] = root;
+                newRoot[1] = newPath(shift, leaf);
+                root = newRoot;
+                shift += BITS;
+            } else {
+                root = pushLeaf(filled, shift, root, leaf);
+            }
+        }
+        return new PersistentTupleImpl(size, shift, root, Arrays.copyOfRange(elements, tailOffset, size), 0, size);
+    }
+
+    @Override
+    public Tuple append(final Object element) {
+        if (end != count) {
+            /*
+             * The slots after the end of this view are used by other tuples
+             */
+            return of(toArray()).append(element);
+        }
+        if (count - tailOffset(count) < WIDTH) {
+            final Object[] newTail = Arrays.copyOf(tailBuffer, tailBuffer.length + 1);
+            newTail[tailBuffer.length] = element;
+            return new PersistentTupleImpl(count + 1, shift, root, newTail, offset, end + 1);
+        }
+        /*
+         * Tail buffer full: move it into the trie
+         */
+        final Object[] newRoot;
+        int newShift = shift;
+        if ((count >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = newPath(shift, tailBuffer);
+            newShift += BITS;
+        } else {
+            newRoot = pushLeaf(count, shift, root, tailBuffer);
+        }
+        return new PersistentTupleImpl(count + 1, newShift, newRoot, new Object[] { element }, offset, end + 1);
+    }
+
+    @Override
+    public Object get(final int i) {
+        if (i < 0 || i >= size()) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        final int index = i + offset;
+        return leafFor(index)[index & MASK];
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Iterator<Object>() {
+            private int index = offset;
+            private Object[] leaf = index < end ? leafFor(index) : null;
+
+            @Override
+            public boolean hasNext() {
+                return index < end;
+            }
+
+            @Override
+            public Object next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if ((index & MASK) == 0) {
+                    leaf = leafFor(index);
+                }
+                return leaf[index++ & MASK];
+            }
+        };
+    }
+
+    @Override
+    public Tuple set(final int i, final Object element) {
+        if (i < 0 || i >= size()) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        final int index = i + offset;
+        if (index >= tailOffset(count)) {
+            final Object[] newTail = tailBuffer.clone();
+            newTail[index & MASK] = element;
+            return new PersistentTupleImpl(count, shift, root, newTail, offset, end);
+        }
+        return new PersistentTupleImpl(count, shift, replace(shift, root, index, element), tailBuffer, offset, end);
+    }
+
+    @Override
+    public int size() {
+        return end - offset;
+    }
+
+    /**
+     * Indexes are clamped to the tuple boundaries, and an empty tuple is
+     * returned if j is not greater than i.
+     *
+     * @param i
+     *            start index
+     * @param j
+     *            end index
+     * @return a tuple with elements i through j-1
+     */
+    @Override
+    public Tuple subTuple(final int i, final int j) {
+        final int start = Math.min(Math.max(i, 0), size());
+        final int stop = Math.max(Math.min(j, size()), start);
+        if (start == 0 && stop == size()) {
+            return this;
+        }
+        final int newSize = stop - start;
+        if (count - newSize > newSize) {
+            /*
+             * The hidden part would be larger than the content: compact
+             */
+            return DatatypeFactory.createTuple(Arrays.copyOfRange(toArray(), start, stop));
+        }
+        return new PersistentTupleImpl(count, shift, root, tailBuffer, offset + start, offset + stop);
+    }
+
+    @Override
+    public Tuple subTupleEnd(final int i) {
+        return subTuple(i, size());
+    }
+
+    @Override
+    public Tuple subTupleStart(final int i) {
+        return subTuple(0, i);
+    }
+
+    @Override
+    public Object[] toArray() {
+        final Object[] result = new Object[size()];
+        int index = offset;
+        int destination = 0;
+        while (index < end) {
+            final Object[] leaf = leafFor(index);
+            final int from = index & MASK;
+            final int length = Math.min(WIDTH - from, end - index);
+            System.arraycopy(leaf, from, result, destination, length);
+            index += length;
+            destination += length;
+        }
+        return result;
+    }
+
+    private Object[] leafFor(final int index) {
+        if (index >= tailOffset(count)) {
+            return tailBuffer;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(index >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(toArray());
+    }
+
+    private static Object[] newPath(final int level, final Object[] node) {
+        if (level == 0) {
+            return node;
+        }
+        final Object[] result = new Object[WIDTH];
+        result[0] = newPath(level - BITS, node);
+        return result;
+    }
+
+    private static Object[] pushLeaf(final int filled, final int level, final Object[] parent, final Object[] leaf) {
+        final int subIndex = ((filled - 1) >>> level) & MASK;
+        final Object[] result = parent.clone();
+        final Object[] toInsert;
+        if (level == BITS) {
+            toInsert = leaf;
+        } else {
+            final Object[] child = (Object[]) parent[subIndex];
+            toInsert = child == null
+                    ? newPath(level - BITS, leaf)
+                    : pushLeaf(filled, level - BITS, child, leaf);
+        }
+        result[subIndex] = toInsert;
+        return result;
+    }
+
+    private static Object[] replace(final int level, final Object[] node, final int index, final Object element) {
+        final Object[] result = node.clone();
+        if (level == 0) {
+            result[index & MASK] = element;
+        } else {
+            final int subIndex = (index >>> level) & MASK;
+            result[subIndex] = replace(level - BITS, (Object[]) node[subIndex], index, element);
+        }
+        return result;
+    }
+
+    private static int tailOffset(final int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Serialized form: the trie structure, including the hidden prefix, is
+     * not written, only the visible elements are.
+     */
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Object[] elements;
+
+        private SerializedForm(final Object[] elements) {
+            this.elements = elements;
+        }
+
+        private Object readResolve() {
+            return PersistentTupleImpl.of(elements);
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.datatype.impl;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Tuple;
+
+/**
+ * Implementation of a Tuple with no duplicate elements, produced by set
+ * operations ({@link #union(Tuple)}, {@link #intersection(Tuple)},
+ * {@link #subtract(Tuple)}). Elements keep their insertion order, and are
+ * indexed by hash, so that membership tests are constant-time.
+ *
+ * Tuples derived by union share an append-only storage: the most recent
+ * tuple can be extended in place, while older ones keep seeing only their
+ * prefix. As a consequence, chains of unions such as a.union(b).union(c)...
+ * (e.g., folds over large neighborhoods or trees) cost time proportional to
+ * the size of the added tuples, rather than of the accumulated one. Once the
+ * storage would grow larger than twice the smallest tuple sharing it, the
+ * union works on a compact copy instead, so that no tuple keeps alive a
+ * storage much larger than itself.
+ */
+public final class SetTupleImpl extends AbstractTuple {
+
+    /**
+     * Minimum size for which set operations produce a {@link SetTupleImpl}.
+     */
+    public static final int MIN_SIZE = 16;
+    private static final long serialVersionUID = 1L;
+    /*
+     * Index key of null elements, which concurrent maps do not support
+     */
+    private static final Object NULL = new Object();
+    private final transient Storage storage;
+    private final transient int size;
+
+    private SetTupleImpl(final Storage storage, final int size) {
+        this.storage = storage;
+        this.size = size;
+        if (storage.smallest == 0) {
+            /*
+             * First tuple on this storage: later ones can only be larger
+             */
+            storage.smallest = size;
+        }
+    }
+
+    /**
+     * @param elements
+     *            the elements
+     * @return a tuple with the provided elements, in order, without
+     *         duplicates. If it is smaller than {@link #MIN_SIZE}, it is
+     *         not necessarily a {@link SetTupleImpl}
+     */
+    public static Tuple distinct(final Iterable<?> elements) {
+        final Storage storage = new Storage(MIN_SIZE);
+        synchronized (storage) {
+            storage.addAll(elements);
+            if (storage.size < MIN_SIZE) {
+                return DatatypeFactory.createTuple(Arrays.copyOf(storage.elements, storage.size));
+            }
+            return new SetTupleImpl(storage, storage.size);
+        }
+    }
+
+    @Override
+    public boolean contains(final Object element) {
+        return indexof(element) >= 0;
+    }
+
+    @Override
+    public Object get(final int i) {
+        if (i < 0 || i >= size) {
+            throw new ArrayIndexOutOfBoundsException(i);
+        }
+        return storage.elements[i];
+    }
+
+    @Override
+    public int indexof(final Object element) {
+        final Integer position = storage.index.get(indexKey(element));
+        return position != null && position < size ? position : -1;
+    }
+
+    @Override
+    public Tuple intersection(final Tuple t) {
+        final Predicate<Object> other = membership(t);
+        return filterDistinct(other);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Tuple subtract(final Tuple t) {
+        final Predicate<Object> other = membership(t);
+        return filterDistinct(other.negate());
+    }
+
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(storage.elements, size);
+    }
+
+    @Override
+    public Tuple union(final Tuple t) {
+        synchronized (storage) {
+            if (storage.size == size && size + t.size() <= 2 * storage.smallest) {
+                /*
+                 * Most recent version, and the storage would not grow much
+                 * larger than the tuples sharing it: extend it
+                 */
+                storage.addAll(t);
+                return storage.size == size ? this : new SetTupleImpl(storage, storage.size);
+            }
+        }
+        /*
+         * The storage has been extended by some other tuple, or would grow
+         * too much: fork
+         */
+        final Storage copy = new Storage(size + t.size());
+        synchronized (copy) {
+            copy.addAll(this);
+            copy.addAll(t);
+            return new SetTupleImpl(copy, copy.size);
+        }
+    }
+
+    private Tuple filterDistinct(final Predicate<Object> filter) {
+        final Object[] result = new Object[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            final Object element = storage.elements[i];
+            if (filter.test(element)) {
+                result[count++] = element;
+            }
+        }
+        if (count < MIN_SIZE) {
+            return DatatypeFactory.createTuple(Arrays.copyOf(result, count));
+        }
+        final Storage filtered = new Storage(count);
+        synchronized (filtered) {
+            filtered.addAll(Arrays.asList(result).subList(0, count));
+            return new SetTupleImpl(filtered, count);
+        }
+    }
+
+    private Object writeReplace() {
+        return new SerializedForm(toArray());
+    }
+
+    private static Object indexKey(final Object element) {
+        return element == null ? NULL : element;
+    }
+
+    /**
+     * Append-only storage, possibly shared among several tuples. Each tuple
+     * only sees the elements before its size, which never change once
+     * written. Writes must be performed while holding the storage monitor.
+     */
+    private static final class Storage {
+        private volatile Object[] elements;
+        private final Map<Object, Integer> index;
+        private int size;
+        private int smallest;
+
+        private Storage(final int capacity) {
+            elements = new Object[Math.max(capacity, 1)];
+            index = new ConcurrentHashMap<>(capacity);
+        }
+
+        private void addAll(final Iterable<?> toAdd) {
+            Object[] target = elements;
+            for (final Object element : toAdd) {
+                if (index.putIfAbsent(indexKey(element), size) == null) {
+                    if (size == target.length) {
+                        target = Arrays.copyOf(target, size * 2);
+                    }
+                    target[size++] = element;
+                }
+            }
+            elements = target;
+        }
+    }
+
+    /**
+     * Serialized form: only the visible elements are written.
+     */
+    private static final class SerializedForm implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Object[] elements;
+
+        private SerializedForm(final Object[] elements) {
+            this.elements = elements;
+        }
+
+        private Object readResolve() {
+            final Storage storage = new Storage(elements.length);
+            synchronized (storage) {
+                storage.addAll(Arrays.asList(elements));
+                return new SetTupleImpl(storage, storage.size);
+            }
+        }
+    }
+
+}
@@ -18,6 +18,9 @@ import org.protelis.vm.ExecutionContext;
 /**
  * Basic implementation of a {@link SuperscriptedAnnotatedTree}.
  *
+ * The state is stored in the {@link ExecutionContext}, and never in the tree,
+ * so that the same tree can be evaluated by many devices.
+ *
  * @param <S>
  *            Superscript type
  * @param <T>
@@ -26,7 +29,6 @@ import org.protelis.vm.ExecutionContext;
 public abstract class AbstractPersistedTree<S, T> extends AbstractProtelisAST<T> {
 
     private static final long serialVersionUID = 457607604000217166L;
-    private transient S superscript;
 
     /**
      * @param metadata
@@ -56,8 +58,7 @@ public abstract class AbstractPersistedTree<S, T> extends AbstractProtelisAST<T>
      * @return the previous state, if present, or the state computed by ifAbsent otherwise
      */
     protected final S loadState(final ExecutionContext context, final Supplier<S> ifAbsent) {
-        superscript = context.getPersistent(ifAbsent);
-        return superscript;
+        return context.getPersistent(ifAbsent);
     }
 
     /**
@@ -68,19 +69,6 @@ public abstract class AbstractPersistedTree<S, T> extends AbstractProtelisAST<T>
      */
     protected final void saveState(final ExecutionContext context, final S obj) {
         context.setPersistent(obj);
-        superscript = obj;
-    }
-
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public String toString() {
-        return super.toString() + "{ "
-            + (superscript instanceof ProtelisAST
-                ? stringFor((ProtelisAST<?>) superscript)
-                : superscript == null ? "..." : superscript)
-            + " }";
     }
 
 }
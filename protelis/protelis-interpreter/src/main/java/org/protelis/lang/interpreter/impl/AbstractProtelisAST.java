@@ -85,10 +85,21 @@ public abstract class AbstractProtelisAST<T> implements ProtelisAST<T>, WithByte
         return sb.append(postfix).toString();
     }
 
+    /**
+     * Evaluates this node in a new stack frame. Frames are pushed and popped
+     * explicitly, so that no object gets allocated by the evaluation protocol
+     * itself; the Protelis stack trace is only built if the evaluation fails.
+     *
+     * @param context
+     *            the execution context
+     * @return the result of the evaluation
+     */
     @Override
     public final T eval(final ExecutionContext context) {
         try {
-            final T result = context.runInNewStackFrame(getBytecode().getCode(), this::evaluate);
+            context.newCallStackFrame(getBytecode().getCode());
+            final T result = evaluate(context);
+            context.returnFromCallFrame();
             if (isNullable() || result != null) {
                 return result;
             } else {
@@ -181,6 +192,27 @@ public abstract class AbstractProtelisAST<T> implements ProtelisAST<T>, WithByte
         return getName() + branchesToString();
     }
 
+    /**
+     * Allocation-free equivalent of
+     * {@code context.runInNewStackFrame(id, branch::eval)}.
+     *
+     * @param context
+     *            the execution context
+     * @param id
+     *            the stack frame id
+     * @param branch
+     *            the tree to evaluate in the new stack frame
+     * @param <R>
+     *            the evaluation result type
+     * @return the result of the evaluation
+     */
+    protected static final <R> R evalInNewStackFrame(final ExecutionContext context, final int id, final ProtelisAST<R> branch) {
+        context.newCallStackFrame(id);
+        final R result = branch.eval(context);
+        context.returnFromCallFrame();
+        return result;
+    }
+
     /**
      * A String representation of an {@link ProtelisAST}. I
      * 
@@ -8,9 +8,8 @@
  *******************************************************************************/
 package org.protelis.lang.interpreter.impl;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
 import com.google.common.primitives.Longs;
 import org.nustaq.serialization.FSTConfiguration;
 import org.protelis.lang.datatype.DatatypeFactory;
@@ -21,19 +20,20 @@ import org.protelis.lang.datatype.JVMEntity;
 import org.protelis.lang.datatype.Tuple;
 import org.protelis.lang.interpreter.ProtelisAST;
 import org.protelis.lang.interpreter.util.Bytecode;
-import org.protelis.lang.interpreter.util.Reference;
 import org.protelis.lang.loading.Metadata;
 import org.protelis.vm.ExecutionContext;
 
-import javax.annotation.Nonnull;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import static org.protelis.lang.interpreter.util.Bytecode.ALIGNED_MAP;
 import static org.protelis.lang.interpreter.util.Bytecode.ALIGNED_MAP_DEFAULT;
@@ -45,23 +45,29 @@ import static org.protelis.lang.interpreter.util.Bytecode.ALIGNED_MAP_GENERATOR;
  * Operation evaluating a collection of expressions associated with keys, such
  * as a set of publish-subscribe streams. This allows devices with different
  * sets of keys to align the expressions that share keys together.
+ *
+ * Unless {@link #setIncremental(boolean) disabled}, the grouping of the values
+ * by key is kept across rounds: if the same devices send tuples with the same
+ * keys, only the values of the changed tuples are patched, and the fields of
+ * the keys whose values did not change are reused.
+ *
+ * When the number of keys is at least {@link #getParallelThreshold()}, and the
+ * {@link ExecutionContext} supports isolated domains, keys get evaluated
+ * concurrently on the common fork-join pool. Each key runs on its own
+ * {@link ExecutionContext#isolateDomain(Field) isolated domain}, and domains
+ * are merged back in key order, producing the same exports, persisted state
+ * and result of the sequential evaluation. Parallel evaluation is disabled by
+ * default: enable it only for programs whose keys neither write the
+ * {@link org.protelis.vm.ExecutionEnvironment} nor use random numbers, unless
+ * both are thread safe.
  */
-public final class AlignedMap extends AbstractProtelisAST<Tuple> {
+public final class AlignedMap extends AbstractPersistedTree<AlignedMap.Grouping, Tuple> {
 
-    private static final Reference CURFIELD = new Reference(new Serializable() {
-        private static final long serialVersionUID = 1L;
-    });
     private static final FSTConfiguration SERIALIZER = FSTConfiguration.createDefaultConfiguration();
     private static final long serialVersionUID = 1L;
-    private static final LoadingCache<Object, byte[]> STACK_IDENTIFIERS = CacheBuilder.newBuilder()
-            .maximumSize(1000)
-            .expireAfterAccess(1, TimeUnit.MINUTES)
-            .build(new CacheLoader<Object, byte[]>() {
-                @Override
-                public byte[] load(@Nonnull final Object key) {
-                    return SERIALIZER.asByteArray(key);
-                }
-            });
+    private static final int FRAMES_SLACK = 2;
+    private static volatile int parallelThreshold = Integer.MAX_VALUE;
+    private static volatile boolean incremental = true;
     static {
         SERIALIZER.registerClass(String.class, Double.class, Integer.class, Tuple.class, FunctionDefinition.class, JVMEntity.class);
     }
@@ -70,6 +76,10 @@ public final class AlignedMap extends AbstractProtelisAST<Tuple> {
     private final ProtelisAST<FunctionDefinition> filterOp;
 
     private final ProtelisAST<FunctionDefinition> runOp;
+    /*
+     * Stack frames of the non-integer keys seen in the last rounds
+     */
+    private transient volatile Map<Object, byte[]> keyFrames;
 
     /**
      * @param metadata
@@ -94,117 +104,256 @@ public final class AlignedMap extends AbstractProtelisAST<Tuple> {
 
     @Override
     public Tuple evaluate(final ExecutionContext context) {
-        final Field<?> origin = context.runInNewStackFrame(ALIGNED_MAP_GENERATOR.getCode(), fieldGenerator::eval);
+        final Field<?> origin = evalInNewStackFrame(context, ALIGNED_MAP_GENERATOR.getCode(), fieldGenerator);
+        final DeviceUID localDeviceUID = context.getDeviceUID();
+        final Map<Object, KeyField> keyToField = incremental
+                ? regroup(context, origin, localDeviceUID)
+                : Grouping.of(origin, localDeviceUID).keyToField;
         /*
-         * Extract one field for each key.
-         * 
-         * This operation translates a field of tuples of tuples of the form:
-         * 
-         * {ID0 : [[key1, val1], [key2, val2]], ID2 : [[key3, val3], [key2, val4]]}
-         * 
-         * into a collection such as:
-         * 
-         * key1 : {ID0 : val1}
-         * key2 : {ID0 : val2, ID2 : val4}
-         * key3 : {ID2: val3}
+         * Get or initialize the mapping between keys and functions
          */
-        final Map<Object, Map<DeviceUID, Object>> keyToField = new LinkedHashMap<>();
-        for (final Map.Entry<DeviceUID, ?> pair : origin.iterable()) {
-            final DeviceUID device = pair.getKey();
-            final Object originalTupleObject = pair.getValue();
+        final Map<Object, byte[]> frames = getKeyFrames();
+        final List<Tuple> resultList = new ArrayList<>(keyToField.size());
+        final Object defaultValue = evalInNewStackFrame(context, ALIGNED_MAP_DEFAULT.getCode(), defVal);
+        if (keyToField.size() < parallelThreshold
+                || !evaluateInParallel(context, keyToField, frames, defaultValue, resultList)) {
+            for (final Entry<Object, KeyField> keyFieldPair : keyToField.entrySet()) {
+                final Object key = keyFieldPair.getKey();
+                final Field<Object> reifiedField = keyFieldPair.getValue().build(localDeviceUID, defaultValue);
+                addIfPresent(resultList, evaluateKey(context.restrictDomain(reifiedField), key, reifiedField, frames));
+            }
+        }
+        if (frames.size() > FRAMES_SLACK * keyToField.size() + FRAMES_SLACK) {
             /*
-             * Mappings are of the form: [[key1, value1][key2, value2]...]
+             * Forget keys that are no longer in use
              */
-            if (originalTupleObject instanceof Tuple) {
-                final Tuple originalTuple = (Tuple) originalTupleObject;
-                for (final Object keyToValueObject : originalTuple) {
-                    if (keyToValueObject instanceof Tuple) {
-                        final Tuple keyToValue = (Tuple) keyToValueObject;
-                        if (keyToValue.size() == 2) {
-                            final Object key = keyToValue.get(0);
-                            final Object value = keyToValue.get(1);
-                            final Map<DeviceUID, Object> targetField = keyToField.computeIfAbsent(key, k -> new LinkedHashMap<>());
-                            targetField.put(device, value);
-                        } else {
-                            throw new IllegalStateException(
-                                    "The tuple must have length 2, " + keyToValue + " has length " + keyToValue.size());
-                        }
-                    } else {
-                        throw new IllegalStateException("Expected " + Tuple.class + ", got " + keyToValueObject.getClass());
-                    }
-                }
-            } else {
-                throw new IllegalStateException("Expected " + Tuple.class + ", got " + originalTupleObject.getClass() + ": " + originalTupleObject);
+            frames.keySet().retainAll(keyToField.keySet());
+        }
+        // return type: [[key0, compval0], [key1, compval1], [key2, compval2]]
+        return DatatypeFactory.createTuple(resultList);
+    }
+
+    /*
+     * Patches the grouping of the previous round, if the devices are the same
+     * and their tuples carry the same keys in the same order: in this case, the
+     * order of the keys and of the devices of each key does not change.
+     */
+    private Map<Object, KeyField> regroup(final ExecutionContext context, final Field<?> origin, final DeviceUID local) {
+        final Grouping previous = loadState(context, () -> null);
+        final Grouping current = previous != null && previous.update(origin, local)
+                ? previous
+                : Grouping.of(origin, local);
+        saveState(context, current);
+        return current.keyToField;
+    }
+
+    /*
+     * Returns false, without evaluating any key, if the context does not
+     * support isolated domains.
+     */
+    private boolean evaluateInParallel(
+            final ExecutionContext context,
+            final Map<Object, KeyField> keyToField,
+            final Map<Object, byte[]> frames,
+            final Object defaultValue,
+            final List<Tuple> resultList
+    ) {
+        final Object[] keys = new Object[keyToField.size()];
+        @SuppressWarnings("unchecked")
+        final Field<Object>[] fields = new Field[keys.length];
+        final ExecutionContext[] isolated = new ExecutionContext[keys.length];
+        final DeviceUID local = context.getDeviceUID();
+        int i = 0;
+        for (final Entry<Object, KeyField> keyFieldPair : keyToField.entrySet()) {
+            keys[i] = keyFieldPair.getKey();
+            fields[i] = keyFieldPair.getValue().build(local, defaultValue);
+            final Optional<ExecutionContext> domain = context.isolateDomain(fields[i]);
+            if (!domain.isPresent()) {
+                return false;
             }
+            isolated[i++] = domain.get();
         }
+        final Object[] results = new Object[keys.length];
+        IntStream.range(0, keys.length).parallel().forEach(key -> {
+            try {
+                results[key] = evaluateKey(isolated[key], keys[key], fields[key], frames);
+            } catch (RuntimeException e) { // NOPMD: rethrown in key order
+                results[key] = e;
+            }
+        });
         /*
-         * Get or initialize the mapping between keys and functions
+         * Merge sequentially, in key order, and report the failure of the first key that failed
          */
-        final List<Tuple> resultList = new ArrayList<>(keyToField.size());
-        final Object defaultValue = context.runInNewStackFrame(ALIGNED_MAP_DEFAULT.getCode(), defVal::eval);
-        for (final Entry<Object, Map<DeviceUID, Object>> keyFieldPair : keyToField.entrySet()) {
-            final Object key = keyFieldPair.getKey();
-            final Map<DeviceUID, Object> preField = keyFieldPair.getValue();
-            final DeviceUID localDeviceUID = context.getDeviceUID();
-            final Object localValue = Optional.ofNullable(preField.remove(localDeviceUID)).orElse(defaultValue);
-            final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
-            for (final Entry<DeviceUID, Object> entry: preField.entrySet()) {
-                builder.add(entry.getKey(), entry.getValue());
-            }
-            final Field<Object> reifiedField = builder.build(localDeviceUID, localValue);
-            final ExecutionContext restricted = context.restrictDomain(reifiedField);
-            /*
-             * Compute arguments
-             */
-            final List<ProtelisAST<?>> args = new ArrayList<>(2);
-            args.add(new Constant<>(getMetadata(), key));
-            args.add(new Variable(getMetadata(), CURFIELD));
-            restricted.putVariable(CURFIELD, reifiedField);
-            /*
-             * Compute the code path: align on keys
-             */
-            if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
-                restricted.newCallStackFrame(((Number) key).intValue());
-            } else if (key instanceof Double) {
-                restricted.newCallStackFrame(Longs.toByteArray(Double.doubleToRawLongBits((double) key)));
-            } else if (key instanceof Serializable) {
-                final byte[] hash = STACK_IDENTIFIERS.getUnchecked(key);
-                restricted.newCallStackFrame(hash);
-            } else {
-                throw new IllegalStateException("alignedMap cannot aligned on non-Serializable objects of type " + key.getClass().getName());
+        for (int key = 0; key < keys.length; key++) {
+            if (results[key] instanceof RuntimeException) {
+                throw (RuntimeException) results[key];
             }
-            /*
-             * Run the actual filtering and operation
-             */
-            final Object condition = callFunctionInSubContext(ALIGNED_MAP_FILTER.getCode(), restricted, filterOp, args);
-            if (condition instanceof Boolean) {
-                if ((Boolean) condition) {
-                    /*
-                     * Filter passed, run operation.
-                     */
-                    resultList.add(DatatypeFactory.createTuple(
-                            key,
-                            callFunctionInSubContext(ALIGNED_MAP_EXECUTE.getCode(), restricted, runOp, args)));
-                }
-            } else {
-                throw new IllegalStateException("Filter must return a Boolean, got " + condition.getClass());
+            context.mergeIsolated(isolated[key]);
+            addIfPresent(resultList, (Tuple) results[key]);
+        }
+        return true;
+    }
+
+    private static void addIfPresent(final List<Tuple> resultList, final Tuple result) {
+        if (result != null) {
+            resultList.add(result);
+        }
+    }
+
+    /*
+     * Evaluates the filter and, if it passes, the operation, in the key stack
+     * frame. Returns null if the key is filtered out.
+     */
+    private Tuple evaluateKey(
+            final ExecutionContext restricted,
+            final Object key,
+            final Field<Object> reifiedField,
+            final Map<Object, byte[]> frames
+    ) {
+        /*
+         * Compute the code path: align on keys
+         */
+        if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            restricted.newCallStackFrame(((Number) key).intValue());
+        } else if (key instanceof Serializable) {
+            restricted.newCallStackFrame(frames.computeIfAbsent(key, AlignedMap::frameFor));
+        } else {
+            throw new IllegalStateException("alignedMap cannot aligned on non-Serializable objects of type " + key.getClass().getName());
+        }
+        /*
+         * Run the actual filtering and operation
+         */
+        final Object condition = apply(ALIGNED_MAP_FILTER.getCode(), restricted, filterOp, key, reifiedField);
+        Tuple result = null;
+        if (condition instanceof Boolean) {
+            if ((Boolean) condition) {
+                /*
+                 * Filter passed, run operation.
+                 */
+                result = DatatypeFactory.createTuple(
+                        key,
+                        apply(ALIGNED_MAP_EXECUTE.getCode(), restricted, runOp, key, reifiedField));
             }
-            restricted.returnFromCallFrame();
+        } else {
+            throw new IllegalStateException("Filter must return a Boolean, got " + condition.getClass());
         }
-        // return type: [[key0, compval0], [key1, compval1], [key2, compval2]]
-        return DatatypeFactory.createTuple(resultList);
+        restricted.returnFromCallFrame();
+        return result;
     }
 
-    private Object callFunctionInSubContext(
+    /*
+     * Same stack frames and bindings of a FunctionCall whose arguments are a
+     * constant key and a variable holding the field, without building the
+     * call. Reading the key has no effect on the code path, while reading the
+     * field restricts it to the aligned neighbors, see Variable.
+     */
+    private static Object apply(
             final int code,
             final ExecutionContext context,
             final ProtelisAST<FunctionDefinition> def,
-            final List<ProtelisAST<?>> parameters
+            final Object key,
+            final Field<Object> field
     ) {
-        return context.runInNewStackFrame(code, ctx -> {
-                final FunctionDefinition function = def.eval(ctx);
-                return new FunctionCall(getMetadata(), function, parameters).eval(ctx);
-            });
+        context.newCallStackFrame(code);
+        final FunctionDefinition function = def.eval(context);
+        if (function.invokerShouldInitializeIt() || function.getParameterCount() != 2) {
+            throw new IllegalArgumentException(function + " must be invoked with " + function.getParameterCount()
+                    + " arguments, but alignedMap invokes it with a key and a field");
+        }
+        context.newCallStackFrame(Bytecode.FUNCTION_CALL.getCode());
+        context.newCallStackFrame(function.getStackCode());
+        context.newCallStackFrame(1);
+        context.newCallStackFrame(Bytecode.VARIABLE_ACCESS.getCode());
+        final Field<?> restricted = field.projectOn(context.buildField(it -> it, (byte) 0));
+        context.returnFromCallFrame();
+        context.returnFromCallFrame();
+        context.putVariable(function.getArgumentByPosition(0), key);
+        context.putVariable(function.getArgumentByPosition(1), restricted);
+        final Object result = function.getBody().eval(context);
+        context.returnFromCallFrame();
+        context.returnFromCallFrame();
+        context.returnFromCallFrame();
+        return result;
+    }
+
+    private static byte[] frameFor(final Object key) {
+        if (key instanceof Double) {
+            return Longs.toByteArray(Double.doubleToRawLongBits((double) key));
+        }
+        if (key instanceof Tuple) {
+            return tupleFrameFor((Tuple) key);
+        }
+        return SERIALIZER.asByteArray(key);
+    }
+
+    /*
+     * Equal tuples can be implemented by different classes, depending on the
+     * operations that built them: the frame only depends on their elements, so
+     * that devices align regardless of how they built the key.
+     */
+    private static byte[] tupleFrameFor(final Tuple key) {
+        final ByteArrayDataOutput frame = ByteStreams.newDataOutput();
+        frame.writeInt(key.size());
+        for (final Object element : key) {
+            final byte[] elementFrame = frameFor(element);
+            frame.writeInt(elementFrame.length);
+            frame.write(elementFrame);
+        }
+        return frame.toByteArray();
+    }
+
+    private Map<Object, byte[]> getKeyFrames() {
+        Map<Object, byte[]> frames = keyFrames;
+        if (frames == null) {
+            synchronized (this) {
+                frames = keyFrames;
+                if (frames == null) {
+                    frames = new ConcurrentHashMap<>();
+                    keyFrames = frames;
+                }
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * @return true if alignedMap patches the grouping of the previous round
+     *         instead of grouping keys from scratch
+     */
+    public static boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * @param enabled
+     *            true (the default) if alignedMap should patch the grouping
+     *            of the previous round when only the values of the keys
+     *            changed, false if keys should be grouped from scratch at
+     *            every round
+     */
+    public static void setIncremental(final boolean enabled) {
+        incremental = enabled;
+    }
+
+    /**
+     * @return the minimum number of keys for which alignedMap evaluates keys
+     *         in parallel
+     */
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param threshold
+     *            the minimum number of keys for which alignedMap evaluates
+     *            keys in parallel. {@link Integer#MAX_VALUE}, the default,
+     *            disables parallel evaluation.
+     */
+    public static void setParallelThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The parallel threshold can not be negative: " + threshold);
+        }
+        parallelThreshold = threshold;
     }
 
     @Override
@@ -222,4 +371,188 @@ public final class AlignedMap extends AbstractProtelisAST<Tuple> {
         return getName() + branchesToString();
     }
 
+    /**
+     * Keys of a field of tuples, grouped by key. The devices and the tuples
+     * they sent are kept, in order to patch the grouping in the next round.
+     */
+    static final class Grouping implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final DeviceUID[] devices;
+        private final Tuple[] tuples;
+        private final Map<Object, KeyField> keyToField;
+
+        private Grouping(final DeviceUID[] devices, final Tuple[] tuples, final Map<Object, KeyField> keyToField) {
+            this.devices = devices;
+            this.tuples = tuples;
+            this.keyToField = keyToField;
+        }
+
+        /*
+         * Extract one field for each key.
+         * 
+         * This operation translates a field of tuples of tuples of the form:
+         * 
+         * {ID0 : [[key1, val1], [key2, val2]], ID2 : [[key3, val3], [key2, val4]]}
+         * 
+         * into a collection such as:
+         * 
+         * key1 : {ID0 : val1}
+         * key2 : {ID0 : val2, ID2 : val4}
+         * key3 : {ID2: val3}
+         */
+        private static Grouping of(final Field<?> origin, final DeviceUID local) {
+            final List<DeviceUID> devices = new ArrayList<>(origin.size() + 1);
+            final List<Tuple> tuples = new ArrayList<>(origin.size() + 1);
+            final Map<Object, KeyField> keyToField = new LinkedHashMap<>();
+            for (final Map.Entry<DeviceUID, ?> pair : origin.iterable()) {
+                final DeviceUID device = pair.getKey();
+                final boolean isLocal = device.equals(local);
+                final Object originalTupleObject = pair.getValue();
+                /*
+                 * Mappings are of the form: [[key1, value1][key2, value2]...]
+                 */
+                if (originalTupleObject instanceof Tuple) {
+                    final Tuple originalTuple = (Tuple) originalTupleObject;
+                    for (final Object keyToValueObject : originalTuple) {
+                        final Tuple keyToValue = checkKeyValue(keyToValueObject);
+                        final KeyField targetField = keyToField.computeIfAbsent(keyToValue.get(0), k -> new KeyField());
+                        if (isLocal) {
+                            targetField.setLocal(keyToValue.get(1));
+                        } else {
+                            targetField.put(devices.size(), device, keyToValue.get(1));
+                        }
+                    }
+                    devices.add(device);
+                    tuples.add(originalTuple);
+                } else {
+                    throw new IllegalStateException("Expected " + Tuple.class + ", got " + originalTupleObject.getClass() + ": " + originalTupleObject);
+                }
+            }
+            return new Grouping(devices.toArray(new DeviceUID[devices.size()]), tuples.toArray(new Tuple[tuples.size()]), keyToField);
+        }
+
+        private static Tuple checkKeyValue(final Object keyToValueObject) {
+            if (keyToValueObject instanceof Tuple) {
+                final Tuple keyToValue = (Tuple) keyToValueObject;
+                if (keyToValue.size() == 2) {
+                    return keyToValue;
+                }
+                throw new IllegalStateException(
+                        "The tuple must have length 2, " + keyToValue + " has length " + keyToValue.size());
+            }
+            throw new IllegalStateException("Expected " + Tuple.class + ", got " + keyToValueObject.getClass());
+        }
+
+        /*
+         * Returns false, leaving this grouping untouched, if the field can not
+         * be obtained by changing the values of the keys.
+         */
+        private boolean update(final Field<?> origin, final DeviceUID local) {
+            final Tuple[] changed = new Tuple[devices.length];
+            int position = 0;
+            for (final Map.Entry<DeviceUID, ?> pair : origin.iterable()) {
+                if (position == devices.length || !devices[position].equals(pair.getKey())) {
+                    return false;
+                }
+                final Object tuple = pair.getValue();
+                if (!tuples[position].equals(tuple)) {
+                    if (!(tuple instanceof Tuple) || !sameKeys(tuples[position], (Tuple) tuple)) {
+                        return false;
+                    }
+                    changed[position] = (Tuple) tuple;
+                }
+                position++;
+            }
+            if (position != devices.length) {
+                return false;
+            }
+            for (position = 0; position < devices.length; position++) {
+                final Tuple tuple = changed[position];
+                if (tuple != null) {
+                    final boolean isLocal = devices[position].equals(local);
+                    for (final Object keyToValueObject : tuple) {
+                        final Tuple keyToValue = (Tuple) keyToValueObject;
+                        final KeyField targetField = keyToField.get(keyToValue.get(0));
+                        if (isLocal) {
+                            targetField.setLocal(keyToValue.get(1));
+                        } else {
+                            targetField.update(position, keyToValue.get(1));
+                        }
+                    }
+                    tuples[position] = tuple;
+                }
+            }
+            return true;
+        }
+
+        private static boolean sameKeys(final Tuple previous, final Tuple current) {
+            if (previous.size() != current.size()) {
+                return false;
+            }
+            for (int i = 0; i < current.size(); i++) {
+                final Object keyToValue = current.get(i);
+                if (!(keyToValue instanceof Tuple)
+                        || ((Tuple) keyToValue).size() != 2
+                        || !((Tuple) previous.get(i)).get(0).equals(((Tuple) keyToValue).get(0))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Neighbor values of a key, collected without intermediate maps. Values
+     * of a device are consecutive, and the last one for each key wins. The
+     * field gets built once, and rebuilt only if some value changes.
+     */
+    private static final class KeyField implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private DeviceUID[] devices = new DeviceUID[1];
+        private Object[] values = new Object[1];
+        private int[] positions = new int[1];
+        private int size;
+        private Object localValue;
+        private transient Field<Object> built;
+        private transient Object builtDefault;
+
+        private void put(final int position, final DeviceUID device, final Object value) {
+            if (size > 0 && positions[size - 1] == position) {
+                values[size - 1] = value;
+                return;
+            }
+            if (size == devices.length) {
+                devices = Arrays.copyOf(devices, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            devices[size] = device;
+            values[size] = value;
+            positions[size] = position;
+            size++;
+        }
+
+        private void update(final int position, final Object value) {
+            values[Arrays.binarySearch(positions, 0, size, position)] = value;
+            built = null;
+        }
+
+        private void setLocal(final Object value) {
+            localValue = value;
+            built = null;
+        }
+
+        private Field<Object> build(final DeviceUID local, final Object defaultValue) {
+            if (built == null || localValue == null && !Objects.equals(builtDefault, defaultValue)) {
+                final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
+                for (int i = 0; i < size; i++) {
+                    builder.add(devices[i], values[i]);
+                }
+                built = builder.build(local, localValue == null ? defaultValue : localValue);
+                builtDefault = defaultValue;
+            }
+            return built;
+        }
+    }
+
 }
@@ -24,7 +24,8 @@ public final class All extends AbstractProtelisAST<Object> {
     private final int last;
 
     /**
-     * Block of statements.
+     * Block of statements. Statements that are {@link Constant}s and whose
+     * value is not returned are skipped, as their evaluation has no effect.
      * 
      * @param metadata
      *            A {@link Metadata} object containing information about the code that generated this AST node.
@@ -39,7 +40,9 @@ public final class All extends AbstractProtelisAST<Object> {
     @Override
     public Object evaluate(final ExecutionContext context) {
         for (int b = 0; b < getBranchesNumber() - 1; b++) {
-            getBranch(b).eval(context);
+            if (!(getBranch(b) instanceof Constant)) {
+                getBranch(b).eval(context);
+            }
             context.newCallStackFrame(b);
         }
         final Object result = getBranch(last).eval(context);
@@ -18,11 +18,16 @@ import org.protelis.vm.ExecutionContext;
 
 /**
  * Two-argument (inline) operator, such as addition.
+ *
+ * The node specializes itself on the operand types observed at the first
+ * evaluation: if they are {@link Double}s, the operator is applied directly
+ * on the primitive values, as long as operands keep being {@link Double}s.
  */
 public final class BinaryOp extends AbstractProtelisAST<Object> {
 
     private static final long serialVersionUID = 2803028109250981637L;
     private final Op2 op;
+    private transient Specialization specialization;
 
     private BinaryOp(final Metadata metadata, final Op2 operator, final ProtelisAST<?> branch1, final ProtelisAST<?> branch2) {
         super(metadata, branch1, branch2);
@@ -47,17 +52,41 @@ public final class BinaryOp extends AbstractProtelisAST<Object> {
 
     @Override
     public Object evaluate(final ExecutionContext context) {
-        return op.run(
-            context.runInNewStackFrame(0, getBranch(0)::eval),
-            context.runInNewStackFrame(1, getBranch(1)::eval)
+        return apply(
+            evalInNewStackFrame(context, 0, getBranch(0)),
+            evalInNewStackFrame(context, 1, getBranch(1))
         );
     }
 
+    private Object apply(final Object a, final Object b) {
+        if (specialization == Specialization.DOUBLES) {
+            if (a instanceof Double && b instanceof Double) {
+                return op.runOnDoubles((Double) a, (Double) b);
+            }
+            /*
+             * Guard failed: deoptimize
+             */
+            specialization = Specialization.GENERIC;
+        } else if (specialization == null) {
+            specialization = op.supportsDoubles() && a instanceof Double && b instanceof Double
+                    ? Specialization.DOUBLES
+                    : Specialization.GENERIC;
+        }
+        return op.run(a, b);
+    }
+
     @Override
     public Bytecode getBytecode() {
         return op.getBytecode();
     }
 
+    /**
+     * @return the operator
+     */
+    public Op2 getOperator() {
+        return op;
+    }
+
     @Override
     public String getName() {
         return op.toString();
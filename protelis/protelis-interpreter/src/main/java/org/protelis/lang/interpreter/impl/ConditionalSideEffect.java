@@ -44,8 +44,8 @@ public final class ConditionalSideEffect extends AbstractProtelisAST<Unit> {
     @SuppressWarnings("unchecked")
     @Override
     public Unit evaluate(final ExecutionContext context) {
-        if (condition().eval(context)) {
-            context.runInNewStackFrame(IF_THEN.getCode(), then()::eval);
+        if (getCondition().eval(context)) {
+            evalInNewStackFrame(context, IF_THEN.getCode(), then());
         }
         return Unit.UNIT;
     }
@@ -60,11 +60,14 @@ public final class ConditionalSideEffect extends AbstractProtelisAST<Unit> {
      */
     @Override
     public String toString() {
-        return "if (" + stringFor(condition()) + ") { " + stringFor(then()) + '}';
+        return "if (" + stringFor(getCondition()) + ") { " + stringFor(then()) + '}';
     }
 
+    /**
+     * @return the condition
+     */
     @SuppressWarnings("unchecked")
-    private ProtelisAST<Boolean> condition() {
+    public ProtelisAST<Boolean> getCondition() {
         return (ProtelisAST<Boolean>) getBranch(0);
     }
 
@@ -40,15 +40,22 @@ public final class CreateTuple extends AbstractProtelisAST<Object> {
     @Override
     public Object evaluate(final ExecutionContext context) {
         final Object[] evaluationResults = new Object[getBranchesNumber()];
-        final TIntList fieldIndices = new TIntArrayList(getBranchesNumber());
-        forEachWithIndex((i, branch) -> {
-            final Object elem = context.runInNewStackFrame(i, branch::eval);
+        TIntList fieldIndices = null;
+        for (int i = 0; i < evaluationResults.length; i++) {
+            final Object elem = evalInNewStackFrame(context, i, getBranch(i));
             evaluationResults[i] = elem;
             if (elem instanceof Field) {
+                if (fieldIndices == null) {
+                    fieldIndices = new TIntArrayList(evaluationResults.length);
+                }
                 fieldIndices.add(i);
             }
-        });
-        if (fieldIndices.isEmpty()) {
+        }
+        return build(evaluationResults, fieldIndices);
+    }
+
+    private static Object build(final Object[] evaluationResults, final TIntList fieldIndices) {
+        if (fieldIndices == null) {
             return DatatypeFactory.createTuple(evaluationResults);
         } else {
             return Fields.apply(DatatypeFactory::createTuple, fieldIndices.toArray(), evaluationResults);
@@ -49,16 +49,15 @@ public final class Eval extends AbstractPersistedTree<Pair<String, ProtelisProgr
                 : createState(currentProgram);
         saveState(context, actualState);
         return context.runInNewStackFrame(EVAL_DYNAMIC_CODE.getCode(), ctx -> {
-            actualState.getRight().compute(ctx);
-        // TODO: figure out which references to pass down... and how to.
+            // TODO: figure out which references to pass down... and how to.
 //          context.putMultipleVariables(result.getGloballyAvailableReferences());
-            return actualState.getRight().getCurrentValue();
+            return actualState.getRight().evaluate(ctx);
         });
     }
 
     private Pair<String, ProtelisProgram> createState(final String program) {
         try {
-            return new ImmutablePair<>(program, ProtelisLoader.parseAnonymousModule(program));
+            return new ImmutablePair<>(program, ProtelisLoader.parseCachedAnonymousModule(program));
         } catch (IllegalArgumentException e) {
             throw new IllegalStateException("The following program can't be parsed:\n" + program, e);
         }
@@ -64,7 +64,7 @@ public final class FunctionCall extends AbstractProtelisAST<Object> {
          */
         context.newCallStackFrame(stackCode);
         if (fd.invokerShouldInitializeIt() && getBranchesNumber() == 1) {
-            context.putVariable(ProtelisLoadingUtilities.IT, context.runInNewStackFrame(0, getBranch(0)::eval));
+            context.putVariable(ProtelisLoadingUtilities.IT, evalInNewStackFrame(context, 0, getBranch(0)));
         } else {
             /*
              * All branches must get evaluated **before** their result are pushed to the variables map.
@@ -72,7 +72,7 @@ public final class FunctionCall extends AbstractProtelisAST<Object> {
              */
             final HashMap<Reference, Object> arguments = newLinkedHashMapWithExpectedSize(getBranchesNumber());
             for (int i = 0; i < getBranchesNumber(); i++) {
-                arguments.put(fd.getArgumentByPosition(i), context.runInNewStackFrame(i, getBranch(i)::eval));
+                arguments.put(fd.getArgumentByPosition(i), evalInNewStackFrame(context, i, getBranch(i)));
             }
             context.putMultipleVariables(arguments);
         }
@@ -14,10 +14,13 @@ import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.FunctionDefinition;
 import org.protelis.lang.interpreter.ProtelisAST;
 import org.protelis.lang.interpreter.util.Bytecode;
+import org.protelis.lang.interpreter.util.MethodInvoker;
 import org.protelis.lang.interpreter.util.ReflectionUtils;
 import org.protelis.lang.loading.Metadata;
 import org.protelis.vm.ExecutionContext;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.function.BinaryOperator;
 
 import static org.protelis.lang.interpreter.util.Bytecode.GENERIC_HOOD_CALL_DEFAULT;
@@ -36,6 +39,7 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
     private final ProtelisAST<FunctionDefinition> function;
     private final boolean inclusive;
     private final String methodName;
+    private transient MethodInvoker method;
 
     /**
      * @param metadata
@@ -94,6 +98,7 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
             throw new IllegalArgumentException(e);
         }
         function = null;
+        method = bindMethod();
     }
 
     @Override
@@ -101,10 +106,12 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
         /*
          * Evaluate the function, the nullResult, and the argument
          */
-        final Field<Object> targetField = context.runInNewStackFrame(GENERIC_HOOD_CALL_FIELD.getCode(), body::eval);
-        final Object emptyResult = context.runInNewStackFrame(GENERIC_HOOD_CALL_DEFAULT.getCode(), empty::eval);
+        final Field<Object> targetField = evalInNewStackFrame(context, GENERIC_HOOD_CALL_FIELD.getCode(), body);
+        final Object emptyResult = evalInNewStackFrame(context, GENERIC_HOOD_CALL_DEFAULT.getCode(), empty);
         final BinaryOperator<Object> merger;
-        if (function == null) {
+        if (method != null) {
+            merger = (a, b) -> ReflectionUtils.invokeFieldable(context, method, null, new Object[] { a, b });
+        } else if (function == null) {
             merger = (a, b) -> ReflectionUtils
                     .invokeFieldable(context, clazz, methodName, null, new Object[] { a, b });
         } else {
@@ -115,6 +122,10 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
             : targetField.reduceValues(merger).orElse(emptyResult);
     }
 
+    private MethodInvoker bindMethod() {
+        return clazz == null ? null : ReflectionUtils.bindStaticMethod(clazz, methodName, 2).orElse(null);
+    }
+
     @Override
     public Bytecode getBytecode() {
         return Bytecode.GENERIC_HOOD_CALL;
@@ -129,7 +140,7 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
     }
 
     private FunctionCall makeCall(final ExecutionContext context, final Object a, final Object b) {
-        final FunctionDefinition reducer = context.runInNewStackFrame(GENERIC_HOOD_CALL_FUNCTION.getCode(), function::eval);
+        final FunctionDefinition reducer = evalInNewStackFrame(context, GENERIC_HOOD_CALL_FUNCTION.getCode(), function);
         return new FunctionCall(
                     function.getMetadata(),
                     reducer,
@@ -138,4 +149,9 @@ public final class GenericHoodCall extends AbstractProtelisAST<Object> {
                         new Constant<>(function.getMetadata(), b)));
     }
 
+    private void readObject(final ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        method = bindMethod();
+    }
+
 }
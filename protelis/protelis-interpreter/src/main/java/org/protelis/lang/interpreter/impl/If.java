@@ -58,12 +58,12 @@ public final class If<T> extends AbstractProtelisAST<T> {
     public T evaluate(final ExecutionContext context) {
         return ensureNotAField(
             conditionExpression.eval(context)
-                ? context.runInNewStackFrame(IF_THEN.getCode(), thenExpression::eval)
-                : context.runInNewStackFrame(IF_ELSE.getCode(), elseExpression::eval)
+                ? evalInNewStackFrame(context, IF_THEN.getCode(), thenExpression)
+                : evalInNewStackFrame(context, IF_ELSE.getCode(), elseExpression)
         );
     }
 
-    private static <T> T ensureNotAField(final T in) {
+    static <T> T ensureNotAField(final T in) {
         if (in instanceof Field) {
             throw new IllegalStateException("if statements cannot return a Field, consider using mux: " + in);
         }
@@ -75,6 +75,27 @@ public final class If<T> extends AbstractProtelisAST<T> {
         return Bytecode.IF;
     }
 
+    /**
+     * @return the condition
+     */
+    public ProtelisAST<Boolean> getCondition() {
+        return conditionExpression;
+    }
+
+    /**
+     * @return the branch evaluated when the condition is false
+     */
+    public ProtelisAST<T> getElse() {
+        return elseExpression;
+    }
+
+    /**
+     * @return the branch evaluated when the condition is true
+     */
+    public ProtelisAST<T> getThen() {
+        return thenExpression;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.util.Bytecode;
+import org.protelis.lang.interpreter.util.Reference;
+import org.protelis.lang.loading.Metadata;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * Call of a Protelis function whose body has been resolved at load time. The
+ * body and the parameters are stored in the call site, and arguments are bound
+ * directly, with no intermediate map. The stack frames are the same of
+ * {@link FunctionCall}, so that the code paths of the body are not affected,
+ * and devices running the original call stay aligned with those running this
+ * node.
+ */
+public final class InlinedFunctionCall extends AbstractProtelisAST<Object> {
+
+    private static final long serialVersionUID = 1L;
+    private final String name;
+    private final byte[] stackCode;
+    private final Reference[] parameters;
+    private final ProtelisAST<?> body;
+
+    /**
+     * @param metadata
+     *            A {@link Metadata} object containing information about the code that generated this AST node.
+     * @param functionDefinition
+     *            the definition of the function. It must not be a lambda
+     *            with an implicit 'it' parameter
+     * @param args
+     *            the arguments. Must be in the same number of the
+     *            {@link FunctionDefinition}'s expected arguments
+     */
+    public InlinedFunctionCall(final Metadata metadata, final FunctionDefinition functionDefinition, final List<ProtelisAST<?>> args) {
+        super(metadata, args);
+        Objects.requireNonNull(functionDefinition);
+        if (functionDefinition.invokerShouldInitializeIt()) {
+            throw new IllegalArgumentException(functionDefinition + " has an implicit parameter and can not be inlined");
+        }
+        if (functionDefinition.getParameterCount() != args.size()) {
+            throw new IllegalArgumentException(functionDefinition + " must be invoked with " + functionDefinition.getParameterCount()
+                    + " arguments, but was invoked with " + args + ", which are " + args.size());
+        }
+        name = functionDefinition.getName();
+        stackCode = functionDefinition.getStackCode();
+        parameters = new Reference[args.size()];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = functionDefinition.getArgumentByPosition(i);
+        }
+        body = functionDefinition.getBody();
+    }
+
+    @Override
+    public Object evaluate(final ExecutionContext context) {
+        context.newCallStackFrame(stackCode);
+        switch (parameters.length) {
+            case 0:
+                break;
+            case 1:
+                context.putVariable(parameters[0], evalInNewStackFrame(context, 0, getBranch(0)));
+                break;
+            default:
+                /*
+                 * All branches must get evaluated before binding the parameters, see FunctionCall
+                 */
+                final Object[] arguments = new Object[parameters.length];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = evalInNewStackFrame(context, i, getBranch(i));
+                }
+                for (int i = 0; i < arguments.length; i++) {
+                    context.putVariable(parameters[i], arguments[i]);
+                }
+        }
+        final Object result = body.eval(context);
+        context.returnFromCallFrame();
+        return result;
+    }
+
+    @Override
+    public Bytecode getBytecode() {
+        return Bytecode.FUNCTION_CALL;
+    }
+
+    /**
+     * @return the body of the function
+     */
+    public ProtelisAST<?> getBody() {
+        return body;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
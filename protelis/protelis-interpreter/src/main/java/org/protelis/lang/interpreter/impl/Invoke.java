@@ -13,10 +13,15 @@ import org.protelis.lang.datatype.FunctionDefinition;
 import org.protelis.lang.datatype.JVMEntity;
 import org.protelis.lang.interpreter.ProtelisAST;
 import org.protelis.lang.interpreter.util.Bytecode;
+import org.protelis.lang.interpreter.util.InlineMethodCache;
+import org.protelis.lang.interpreter.util.MethodInvoker;
 import org.protelis.lang.interpreter.util.ReflectionUtils;
 import org.protelis.lang.loading.Metadata;
 import org.protelis.vm.ExecutionContext;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -26,6 +31,13 @@ import static org.protelis.lang.interpreter.util.Bytecode.DOT_OPERATOR_TARGET;
 
 /**
  * Call an external Java non-static method.
+ *
+ * Calls to imported static methods are bound when the node is built, if the
+ * method can be selected by the number of arguments alone. Bound calls neither
+ * evaluate the target nor resolve the method at each evaluation.
+ *
+ * Applications of function values reuse the {@link FunctionCall} built for
+ * the last few {@link FunctionDefinition}s seen at the call site.
  */
 public final class Invoke extends AbstractProtelisAST<Object> {
 
@@ -34,10 +46,18 @@ public final class Invoke extends AbstractProtelisAST<Object> {
      * left hand side of the {@link Invoke} is a {@link FunctionDefinition}.
      */
     public static final String APPLY = "apply";
+    /**
+     * Maximum number of {@link FunctionCall}s remembered by each call site.
+     */
+    public static final int MAX_CACHED_CALLS = 4;
     private static final long serialVersionUID = 1L;
+    private static final FunctionCall[] NO_CALLS = new FunctionCall[0];
     private final boolean isApply;
     private final ProtelisAST<?> left;
     private final String methodName;
+    private transient volatile FunctionCall[] calls = NO_CALLS;
+    private transient InlineMethodCache methodCache;
+    private transient MethodInvoker staticMethod;
 
     private Invoke(final Metadata metadata, final boolean apply, final String name, final ProtelisAST<?> target, final List<ProtelisAST<?>> args) {
         super(metadata, args);
@@ -45,6 +65,7 @@ public final class Invoke extends AbstractProtelisAST<Object> {
         isApply = apply;
         methodName = apply ? APPLY : name;
         left = target;
+        staticMethod = bindStaticMethod();
     }
 
     /**
@@ -75,41 +96,96 @@ public final class Invoke extends AbstractProtelisAST<Object> {
 
     @Override
     public Object evaluate(final ExecutionContext context) {
+        if (staticMethod != null) {
+            return ReflectionUtils.invokeFieldable(context, staticMethod, null, evaluateArguments(context));
+        }
         /*
          * If it is a function pointer, then create a new function call
          */
-        final Object target = context.runInNewStackFrame(DOT_OPERATOR_TARGET.getCode(), left::eval);
+        final Object target = evalInNewStackFrame(context, DOT_OPERATOR_TARGET.getCode(), left);
         if (isApply && target instanceof FunctionDefinition) {
             final FunctionDefinition fd = (FunctionDefinition) target;
             /*
              * Currently, there is no change in the codepath when superscript is
              * executed: f.apply(...) is exactly equivalent to f(...).
              */
-            return makeFunctionCall(fd).eval(context);
+            return functionCallFor(fd).eval(context);
         } else {
             /*
              * Otherwise, evaluate branches and proceed to call Java
              */
-            /*
-             * Check everything for fields
-             */
-            final Object[] args = new Object[getBranchesNumber()];
-            context.newCallStackFrame(DOT_OPERATOR_ARGUMENTS.getCode());
-            for (int i = 0; i < getBranchesNumber(); i++) {
-                args[i] = context.runInNewStackFrame(i, getBranch(i)::eval);
-            }
-            context.returnFromCallFrame();
+            final Object[] args = evaluateArguments(context);
             if (isApply && target instanceof JVMEntity) {
                 final JVMEntity jvmEntity = (JVMEntity) target;
-                return ReflectionUtils.invokeFieldable(context, jvmEntity.getType(), jvmEntity.getMemberName(), null, args);
+                return invokeJava(context, jvmEntity.getType(), jvmEntity.getMemberName(), null, args);
             } else {
-                return ReflectionUtils.invokeFieldable(context, target.getClass(), methodName, target, args);
+                return invokeJava(context, target.getClass(), methodName, target, args);
             }
         }
     }
 
-    private FunctionCall makeFunctionCall(final FunctionDefinition functionDefinition) {
-        return new FunctionCall(getMetadata(), functionDefinition, getBranches());
+    /*
+     * Check everything for fields
+     */
+    private Object[] evaluateArguments(final ExecutionContext context) {
+        final Object[] args = new Object[getBranchesNumber()];
+        context.newCallStackFrame(DOT_OPERATOR_ARGUMENTS.getCode());
+        for (int i = 0; i < getBranchesNumber(); i++) {
+            args[i] = evalInNewStackFrame(context, i, getBranch(i));
+        }
+        context.returnFromCallFrame();
+        return args;
+    }
+
+    /*
+     * The target of an imported static method is a constant, whose evaluation
+     * does not affect the code path
+     */
+    private MethodInvoker bindStaticMethod() {
+        if (isApply && left instanceof JvmConstant) {
+            final JVMEntity entity = ((JvmConstant) left).getEntity();
+            if (entity.isMethod()) {
+                return ReflectionUtils.bindStaticMethod(entity.getType(), entity.getMemberName(), getBranchesNumber())
+                        .orElse(null);
+            }
+        }
+        return null;
+    }
+
+    private Object invokeJava(
+            final ExecutionContext context,
+            final Class<?> clazz,
+            final String name,
+            final Object target,
+            final Object[] args) {
+        if (methodCache == null) {
+            methodCache = new InlineMethodCache();
+        }
+        return methodCache.invoke(context, clazz, name, target, args);
+    }
+
+    /*
+     * Function values are created once when the program is loaded, hence the
+     * same definitions keep reaching the call site and identity suffices
+     */
+    private FunctionCall functionCallFor(final FunctionDefinition functionDefinition) {
+        final FunctionCall[] current = calls;
+        for (final FunctionCall call : current) {
+            if (call.getFunctionDefinition() == functionDefinition) {
+                return call;
+            }
+        }
+        final FunctionCall call = new FunctionCall(getMetadata(), functionDefinition, getBranches());
+        if (current.length < MAX_CACHED_CALLS) {
+            synchronized (this) {
+                final FunctionCall[] updated = Arrays.copyOf(calls, calls.length + 1);
+                if (updated.length <= MAX_CACHED_CALLS) {
+                    updated[updated.length - 1] = call;
+                    calls = updated;
+                }
+            }
+        }
+        return call;
     }
 
     @Override
@@ -137,4 +213,10 @@ public final class Invoke extends AbstractProtelisAST<Object> {
     protected boolean isNullable() {
         return true;
     }
+
+    private void readObject(final ObjectInputStream stream) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        calls = NO_CALLS;
+        staticMethod = bindStaticMethod();
+    }
 }
@@ -36,6 +36,13 @@ public final class JvmConstant extends AbstractProtelisAST<Object> {
         return javaFeature.getValue();
     }
 
+    /**
+     * @return the Java entity this node refers to
+     */
+    public JVMEntity getEntity() {
+        return javaFeature;
+    }
+
     @Override
     public Bytecode getBytecode() {
         return Bytecode.VARIABLE_ACCESS;
@@ -109,7 +109,7 @@ public final class ShareCall<S, T> extends AbstractPersistedTree<S, T> {
     @SuppressWarnings("unchecked")
     @Override
     public T evaluate(final ExecutionContext context) {
-        final S initValue = context.runInNewStackFrame(SHARE_INIT.getCode(), init::eval);
+        final S initValue = evalInNewStackFrame(context, SHARE_INIT.getCode(), init);
         final S localValue = ensureType(loadState(context, () -> initValue));
         ifPresent(localName, it -> context.putVariable(it, localValue));
         final BodyResult<S> bodyResult = new BodyResult<>();
@@ -135,7 +135,7 @@ public final class ShareCall<S, T> extends AbstractPersistedTree<S, T> {
     }
 
     private Optional<T> evaluateYield(final ExecutionContext context) {
-        return yield.transform(it -> context.runInNewStackFrame(SHARE_YIELD.getCode(), it::eval));
+        return yield.transform(it -> evalInNewStackFrame(context, SHARE_YIELD.getCode(), it));
     }
 
     @Override
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+/**
+ * Operand types observed by self-specializing nodes. Nodes start
+ * uninitialized (null), specialize on the types of the first operands they
+ * see, and permanently fall back to {@link #GENERIC} as soon as the guard of
+ * their specialization fails.
+ */
+enum Specialization {
+
+    /**
+     * All the operands are {@link Double}s: type dispatch is skipped.
+     */
+    DOUBLES,
+
+    /**
+     * Any type: the operator performs the full type dispatch.
+     */
+    GENERIC;
+
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.impl;
+
+import static org.protelis.lang.interpreter.util.Bytecode.IF_ELSE;
+import static org.protelis.lang.interpreter.util.Bytecode.IF_THEN;
+
+import java.util.Objects;
+
+import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.util.Bytecode;
+import org.protelis.lang.loading.Metadata;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * The branch of an {@link If} whose condition is known at load time. The
+ * condition is not evaluated, but the same stack frames of the {@link If} are
+ * pushed, so that the code paths of the branch are not affected, and devices
+ * running the original {@link If} stay aligned with those running this node.
+ *
+ * @param <T>
+ *            the result type
+ */
+public final class StaticBranch<T> extends AbstractProtelisAST<T> {
+
+    private static final long serialVersionUID = 1L;
+    private final boolean condition;
+    private final ProtelisAST<T> branch;
+
+    /**
+     * @param metadata
+     *            A {@link Metadata} object containing information about the code that generated this AST node.
+     * @param condition
+     *            the value of the condition of the original {@link If}
+     * @param branch
+     *            the branch selected by the condition
+     */
+    public StaticBranch(final Metadata metadata, final boolean condition, final ProtelisAST<T> branch) {
+        super(metadata, branch);
+        this.condition = condition;
+        this.branch = Objects.requireNonNull(branch);
+    }
+
+    @Override
+    protected T evaluate(final ExecutionContext context) {
+        return If.ensureNotAField(evalInNewStackFrame(context, getBranchCode(), branch));
+    }
+
+    @Override
+    public Bytecode getBytecode() {
+        return Bytecode.IF;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName() {
+        return "if";
+    }
+
+    private int getBranchCode() {
+        return (condition ? IF_THEN : IF_ELSE).getCode();
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " (" + condition + ") { " + stringFor(branch) + " }";
+    }
+
+}
@@ -68,7 +68,14 @@ public final class TernaryOp extends AbstractProtelisAST<Object> {
     }
 
     private Object evalBranch(final ExecutionContext context, final int i) {
-        return context.runInNewStackFrame(i, getBranch(i)::eval);
+        return evalInNewStackFrame(context, i, getBranch(i));
+    }
+
+    /**
+     * @return the operator
+     */
+    public Op3 getOperator() {
+        return op;
     }
 
     @Override
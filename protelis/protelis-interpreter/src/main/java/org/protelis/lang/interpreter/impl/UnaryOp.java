@@ -19,11 +19,14 @@ import org.protelis.vm.ExecutionContext;
 /**
  * Unary (prefix) operator, such as negation.
  *
+ * Like {@link BinaryOp}, the node specializes itself on {@link Double}
+ * operands when the operator supports them.
  */
 public final class UnaryOp extends AbstractProtelisAST<Object> {
 
     private static final long serialVersionUID = 2803028109250981637L;
     private final Op1 op;
+    private transient Specialization specialization;
 
     /**
      * @param metadata
@@ -45,7 +48,31 @@ public final class UnaryOp extends AbstractProtelisAST<Object> {
 
     @Override
     public Object evaluate(final ExecutionContext context) {
-        return op.run(getBranch(0).eval(context));
+        return apply(getBranch(0).eval(context));
+    }
+
+    private Object apply(final Object operand) {
+        if (specialization == Specialization.DOUBLES) {
+            if (operand instanceof Double) {
+                return op.runOnDouble((Double) operand);
+            }
+            /*
+             * Guard failed: deoptimize
+             */
+            specialization = Specialization.GENERIC;
+        } else if (specialization == null) {
+            specialization = op.supportsDoubles() && operand instanceof Double
+                    ? Specialization.DOUBLES
+                    : Specialization.GENERIC;
+        }
+        return op.run(operand);
+    }
+
+    /**
+     * @return the operator
+     */
+    public Op1 getOperator() {
+        return op;
     }
 
     @Override
@@ -64,6 +64,13 @@ public final class Variable extends AbstractProtelisAST<Object> {
         return Bytecode.VARIABLE_ACCESS;
     }
 
+    /**
+     * @return the {@link Reference} to the variable
+     */
+    public Reference getReference() {
+        return name;
+    }
+
     @Override
     public String getName() {
         return name.toString();
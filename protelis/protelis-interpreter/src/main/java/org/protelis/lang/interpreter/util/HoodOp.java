@@ -25,7 +25,10 @@ import static org.protelis.lang.interpreter.util.Bytecode.HOOD_UNION;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
@@ -33,9 +36,10 @@ import java.util.function.Supplier;
 
 import org.apache.commons.math3.util.Pair;
 import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.DeviceUID;
 import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.Tuple;
-import org.protelis.lang.datatype.Tuples;
+import org.protelis.lang.datatype.impl.SetTupleImpl;
 
 /**
  * Collection of functions and helper methods for reducing fields into local
@@ -157,11 +161,13 @@ public enum HoodOp implements WithBytecode {
     }
 
     private static Object all(final Field<Object> f, final boolean inclusive) {
-        return reduceFieldValues(f, inclusive, ALL.defs, Op2.AND);
+        final Object fast = PrimitiveHoodReductions.all(f, inclusive);
+        return fast == null ? reduceFieldValues(f, inclusive, ALL.defs, Op2.AND) : fast;
     }
 
     private static Object any(final Field<Object> f, final boolean inclusive) {
-        return reduceFieldValues(f, inclusive, ANY.defs, Op2.OR);
+        final Object fast = PrimitiveHoodReductions.any(f, inclusive);
+        return fast == null ? reduceFieldValues(f, inclusive, ANY.defs, Op2.OR) : fast;
     }
 
     private static Tuple fillTuple(final Object defVal, final Tuple in) {
@@ -189,10 +195,15 @@ public enum HoodOp implements WithBytecode {
     }
 
     private static Object max(final Field<Object> f, final boolean inclusive) {
-        return reduceFieldValues(f, inclusive, MAX.defs, Op2.MAX);
+        final Object fast = PrimitiveHoodReductions.max(f, inclusive);
+        return fast == null ? reduceFieldValues(f, inclusive, MAX.defs, Op2.MAX) : fast;
     }
 
     private static Object mean(final Field<Object> f, final boolean inclusive) {
+        final Object fast = PrimitiveHoodReductions.mean(f, inclusive);
+        if (fast != null) {
+            return fast;
+        }
         final int size = f.size() + (inclusive ? 1 : 0);
         if (size == 0) {
             return MEAN.defs.apply(f);
@@ -201,7 +212,8 @@ public enum HoodOp implements WithBytecode {
     }
 
     private static Object min(final Field<Object> f, final boolean inclusive) {
-        return reduceFieldValues(f, inclusive, MIN.defs, Op2.MIN.getFunction());
+        final Object fast = PrimitiveHoodReductions.min(f, inclusive);
+        return fast == null ? reduceFieldValues(f, inclusive, MIN.defs, Op2.MIN.getFunction()) : fast;
     }
 
     private static Object reduceFieldValues(final Field<Object> f, final boolean inclusive, final SerializableFunction defs, final Op2 reducer) {
@@ -224,16 +236,39 @@ public enum HoodOp implements WithBytecode {
     }
 
     private static Object sum(final Field<Object> f, final boolean inclusive) {
-        return reduceFieldValues(f, inclusive, SUM.defs, Op2.PLUS.getFunction());
+        final Object fast = PrimitiveHoodReductions.sum(f, inclusive);
+        return fast == null ? reduceFieldValues(f, inclusive, SUM.defs, Op2.PLUS.getFunction()) : fast;
     }
 
     private static Tuple union(final Field<Object> f, final boolean inclusive) {
-        final Object reduced = reduceFieldValues(f, inclusive, UNION.defs, (a, b) -> {
-                final Tuple at = a instanceof Tuple ? (Tuple) a : DatatypeFactory.createTuple(a);
-                final Tuple bt = b instanceof Tuple ? (Tuple) b : DatatypeFactory.createTuple(b);
-                return Tuples.union(at, bt);
-            });
-        return reduced instanceof Tuple ? (Tuple) reduced : DatatypeFactory.createTuple(reduced);
+        /*
+         * Equivalent to a pairwise reduction via Tuples.union, but all the
+         * elements are collected at once, and a single tuple gets created.
+         */
+        final Set<Object> elements = new LinkedHashSet<>();
+        final DeviceUID local = f.getLocalDevice();
+        Object last = null;
+        int count = 0;
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                last = entry.getValue();
+                count++;
+                if (last instanceof Tuple) {
+                    for (final Object element : (Tuple) last) {
+                        elements.add(element);
+                    }
+                } else {
+                    elements.add(last);
+                }
+            }
+        }
+        if (count == 0) {
+            return (Tuple) UNION.defs.apply(f);
+        }
+        if (count == 1) {
+            return last instanceof Tuple ? (Tuple) last : DatatypeFactory.createTuple(last);
+        }
+        return SetTupleImpl.distinct(elements);
     }
 
     @FunctionalInterface
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.util;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import org.protelis.lang.datatype.Field;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * Inline cache for a single Java invocation site. It remembers the methods
+ * selected for the last few combinations of receiver class, method name and
+ * argument classes seen at the site, along with their prepared invokers, and
+ * can be probed without allocating.
+ * Misses are resolved through the global method cache of
+ * {@link ReflectionUtils}. Once {@link #MAX_ENTRIES} combinations have been
+ * seen, the site is considered megamorphic and no further entries are added.
+ *
+ * Invocations with {@link Field} arguments are never cached here, as the
+ * selected method depends on the types of the field values.
+ *
+ * Instances are thread-safe.
+ */
+public final class InlineMethodCache {
+
+    /**
+     * Maximum number of receiver and argument class combinations remembered.
+     */
+    public static final int MAX_ENTRIES = 4;
+    private static final Entry[] EMPTY = new Entry[0];
+    private volatile Entry[] entries = EMPTY;
+
+    /**
+     * @param clazz
+     *            the class to search for a method
+     * @param methodName
+     *            the name of the method
+     * @param target
+     *            the target object (can be null in case of static invocation).
+     *            If it is a {@link Field}, the method is searched in the type
+     *            of its values
+     * @param args
+     *            the arguments for the method
+     * @return the method to invoke
+     */
+    public Method lookup(final Class<?> clazz, final String methodName, final Object target, final Object[] args) {
+        return invokerFor(clazz, methodName, target, args).getMethod();
+    }
+
+    /**
+     * Invokes the method selected for the provided arguments. If there are
+     * fields involved, field operations are applied.
+     *
+     * @param context
+     *            the current {@link ExecutionContext}
+     * @param clazz
+     *            the class to search for a method
+     * @param methodName
+     *            the name of the method
+     * @param target
+     *            the target object (can be null in case of static invocation)
+     * @param args
+     *            the arguments for the method
+     * @return the result of the method invocation
+     */
+    public Object invoke(
+            final ExecutionContext context,
+            final Class<?> clazz,
+            final String methodName,
+            final Object target,
+            final Object[] args) {
+        return ReflectionUtils.invokeFieldable(context, invokerFor(clazz, methodName, target, args), target, args);
+    }
+
+    /**
+     * @return the number of cached class combinations
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    private MethodInvoker invokerFor(final Class<?> clazz, final String methodName, final Object target, final Object[] args) {
+        final Class<?> receiver = Field.class.isAssignableFrom(clazz) && target instanceof Field
+                ? ((Field<?>) target).getExpectedType()
+                : clazz;
+        final Entry[] current = entries;
+        for (final Entry entry : current) {
+            if (entry.matches(receiver, methodName, args)) {
+                return entry.invoker;
+            }
+        }
+        final MethodInvoker invoker = MethodInvoker.of(ReflectionUtils.searchBestMethod(receiver, methodName, args));
+        if (current.length < MAX_ENTRIES && isCacheable(args)) {
+            synchronized (this) {
+                final Entry[] updated = Arrays.copyOf(entries, entries.length + 1);
+                if (updated.length <= MAX_ENTRIES) {
+                    updated[updated.length - 1] = new Entry(receiver, methodName, args, invoker);
+                    entries = updated;
+                }
+            }
+        }
+        return invoker;
+    }
+
+    private static boolean isCacheable(final Object[] args) {
+        for (final Object arg : args) {
+            if (arg instanceof Field) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Class<?> classOf(final Object arg) {
+        return arg == null ? null : arg.getClass();
+    }
+
+    private static final class Entry {
+        private final Class<?> receiver;
+        private final String methodName;
+        private final Class<?>[] argumentClasses;
+        private final MethodInvoker invoker;
+
+        private Entry(final Class<?> receiver, final String methodName, final Object[] args, final MethodInvoker invoker) {
+            this.receiver = receiver;
+            this.methodName = methodName;
+            this.argumentClasses = new Class<?>[args.length];
+            for (int i = 0; i < args.length; i++) {
+                argumentClasses[i] = classOf(args[i]);
+            }
+            this.invoker = invoker;
+        }
+
+        private boolean matches(final Class<?> clazz, final String name, final Object[] args) {
+            if (receiver != clazz || argumentClasses.length != args.length || !methodName.equals(name)) {
+                return false;
+            }
+            for (int i = 0; i < args.length; i++) {
+                if (argumentClasses[i] != classOf(args[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+}
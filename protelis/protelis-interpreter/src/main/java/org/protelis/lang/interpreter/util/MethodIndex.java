@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.util;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang3.reflect.MethodUtils;
+import org.protelis.vm.ExecutionContext;
+
+/**
+ * Index of the public methods of a class, used to resolve Java invocations.
+ * Methods are grouped by name when the class is first indexed. For each name,
+ * accessible methods are resolved once, and the candidates for each number of
+ * arguments are selected once, along with the data required to score them.
+ *
+ * Indexes are bound to their class through a {@link ClassValue}. Values bound
+ * to a class are strongly reachable as long as the class is: an index stored
+ * in a class of an ancestor class loader, such as {@link Math}, would keep the
+ * class loader of Protelis from being unloaded. Hence, indexes are built once
+ * and never evicted for the classes loaded by the class loader of Protelis or
+ * by its descendants, while indexes of other classes are only weakly
+ * referenced, and get rebuilt if collected.
+ *
+ * Instances are thread-safe.
+ */
+final class MethodIndex {
+
+    /*
+     * Values are either a MethodIndex or a WeakReference to it
+     */
+    private static final ClassValue<Object> INDEXES = new ClassValue<Object>() {
+        @Override
+        protected Object computeValue(final Class<?> type) {
+            final MethodIndex index = new MethodIndex(type);
+            return isOwned(type) ? index : new WeakReference<>(index);
+        }
+    };
+    private static final Candidate[] NO_CANDIDATES = new Candidate[0];
+    private final Map<String, Method[]> methods;
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    private MethodIndex(final Class<?> clazz) {
+        final Map<String, List<Method>> byName = new LinkedHashMap<>();
+        for (final Method method : clazz.getMethods()) {
+            byName.computeIfAbsent(method.getName(), k -> new ArrayList<>()).add(method);
+        }
+        final Map<String, Method[]> result = new LinkedHashMap<>(byName.size() * 2);
+        for (final Map.Entry<String, List<Method>> entry : byName.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toArray(new Method[entry.getValue().size()]));
+        }
+        methods = Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * @param clazz
+     *            the class
+     * @return the index of the class
+     */
+    static MethodIndex of(final Class<?> clazz) {
+        Objects.requireNonNull(clazz);
+        while (true) {
+            final Object value = INDEXES.get(clazz);
+            if (value instanceof MethodIndex) {
+                return (MethodIndex) value;
+            }
+            @SuppressWarnings("unchecked")
+            final MethodIndex index = ((WeakReference<MethodIndex>) value).get();
+            if (index != null) {
+                return index;
+            }
+            INDEXES.remove(clazz);
+        }
+    }
+
+    /*
+     * True if the class can not outlive the class loader of Protelis
+     */
+    private static boolean isOwned(final Class<?> type) {
+        final ClassLoader protelis = MethodIndex.class.getClassLoader();
+        for (ClassLoader loader = type.getClassLoader(); loader != null; loader = loader.getParent()) {
+            if (loader.equals(protelis)) {
+                return true;
+            }
+        }
+        return protelis == null;
+    }
+
+    /**
+     * @param methodName
+     *            the name of the method
+     * @param argClass
+     *            the classes of the arguments. The first one is used to
+     *            understand whether the {@link ExecutionContext} will be
+     *            injected
+     * @return the accessible methods that can be invoked with such a number of
+     *         arguments, in the order of {@link Class#getMethods()}
+     */
+    Candidate[] candidates(final String methodName, final Class<?>[] argClass) {
+        final boolean firstIsContext = argClass.length > 0
+                && argClass[0] != null
+                && ExecutionContext.class.isAssignableFrom(argClass[0]);
+        return candidates(methodName, argClass.length, firstIsContext);
+    }
+
+    /**
+     * @param methodName
+     *            the name of the method
+     * @param arity
+     *            the number of arguments
+     * @param firstIsContext
+     *            true if the first argument is an {@link ExecutionContext},
+     *            and hence no context will be injected
+     * @return the accessible methods that can be invoked with such a number of
+     *         arguments, in the order of {@link Class#getMethods()}
+     */
+    Candidate[] candidates(final String methodName, final int arity, final boolean firstIsContext) {
+        final Method[] named = methods.get(methodName);
+        if (named == null) {
+            return NO_CANDIDATES;
+        }
+        return groups.computeIfAbsent(methodName, k -> new Group(named)).forArity(arity, firstIsContext);
+    }
+
+    /**
+     * Methods sharing a name.
+     */
+    private static final class Group {
+        private final Candidate[] all;
+        private volatile Candidate[][] byArity = new Candidate[0][];
+
+        private Group(final Method[] named) {
+            final List<Candidate> accessible = new ArrayList<>(named.length);
+            for (final Method method : named) {
+                final Method resolved = MethodUtils.getAccessibleMethod(method);
+                if (resolved != null) {
+                    accessible.add(new Candidate(resolved));
+                }
+            }
+            all = accessible.toArray(NO_CANDIDATES);
+        }
+
+        private Candidate[] forArity(final int arity, final boolean firstIsContext) {
+            final int index = 2 * arity + (firstIsContext ? 1 : 0);
+            Candidate[][] current = byArity;
+            if (index < current.length && current[index] != null) {
+                return current[index];
+            }
+            final Candidate[] selected = Arrays.stream(all)
+                    .filter(it -> it.acceptsArguments(arity, firstIsContext))
+                    .toArray(Candidate[]::new);
+            synchronized (this) {
+                current = byArity;
+                current = index < current.length ? current.clone() : Arrays.copyOf(current, index + 1);
+                current[index] = selected;
+                byArity = current;
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * A method, along with the data needed to check and score its
+     * compatibility with the provided arguments.
+     */
+    static final class Candidate {
+        private final Method method;
+        private final Class<?>[] parameters;
+        private final boolean acceptsContext;
+
+        private Candidate(final Method method) {
+            this.method = method;
+            parameters = method.getParameterTypes();
+            acceptsContext = parameters.length > 0 && ExecutionContext.class.isAssignableFrom(parameters[0]);
+        }
+
+        private boolean acceptsArguments(final int arity, final boolean firstIsContext) {
+            /*
+             * The method must be invoked with enough arguments to match at least the count
+             * of non-ExecutionContext parameters (except if varargs, in which case one less
+             * argument is allowed), and at most the total number of parameters (unless it
+             * is varargs, in which case there is no limit)
+             */
+            final int actual = arity + (acceptsContext && !firstIsContext ? 1 : 0);
+            return method.isVarArgs() ? actual >= parameters.length - 1 : actual == parameters.length;
+        }
+
+        /**
+         * @return the method
+         */
+        Method getMethod() {
+            return method;
+        }
+
+        /**
+         * @param argClass
+         *            the classes of the arguments
+         * @return true if the {@link ExecutionContext} must be pushed as first
+         *         argument
+         */
+        boolean pushesContext(final Class<?>[] argClass) {
+            return acceptsContext
+                    && parameters.length == argClass.length + 1
+                    && (argClass.length == 0 || argClass[0] == null
+                        || !ExecutionContext.class.isAssignableFrom(argClass[0]));
+        }
+
+        /**
+         * @param n
+         *            the position of the argument, including the
+         *            {@link ExecutionContext} if pushed
+         * @return the expected type of the argument. For the trailing
+         *         arguments of variable arity methods, this is the component
+         *         type of the array
+         */
+        Class<?> argumentType(final int n) {
+            if (method.isVarArgs() && n >= parameters.length - 1) {
+                return parameters[parameters.length - 1].getComponentType();
+            }
+            return parameters[n];
+        }
+    }
+
+}
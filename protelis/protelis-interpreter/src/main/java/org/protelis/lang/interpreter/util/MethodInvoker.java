@@ -0,0 +1,280 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+import org.protelis.lang.datatype.Unit;
+import org.protelis.vm.ExecutionContext;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.primitives.Primitives;
+
+/**
+ * Invokes a Java method through {@link MethodHandle}s. For each number of
+ * arguments, and depending on whether the {@link ExecutionContext} must be
+ * injected, a handle is prepared once, which:
+ * <ul>
+ * <li>passes the context as first argument, if required;</li>
+ * <li>collects the trailing arguments of variable arity methods into an
+ * array;</li>
+ * <li>converts numeric arguments to the expected type, with the same rules of
+ * {@link ReflectionUtils};</li>
+ * <li>reports {@link Unit#UNIT} as result of void methods.</li>
+ * </ul>
+ * Hence, arguments are neither repackaged nor retried at each invocation.
+ */
+public final class MethodInvoker {
+
+    private static final MethodType INVOCATION = MethodType.methodType(
+            Object.class, Object.class, ExecutionContext.class, Object[].class);
+    private static final MethodHandle CONVERTER;
+    private static final LoadingCache<Method, MethodInvoker> INVOKERS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(MethodInvoker::new));
+    private static final MethodHandle[] NO_HANDLES = new MethodHandle[0];
+    private final Method method;
+    private final Class<?>[] parameters;
+    private final boolean acceptsContext;
+    private final boolean isVoid;
+    private volatile MethodHandle[] handles = NO_HANDLES;
+
+    static {
+        try {
+            CONVERTER = MethodHandles.lookup().findStatic(MethodInvoker.class, "convert",
+                    MethodType.methodType(Object.class, Class.class, Class.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private MethodInvoker(final Method method) {
+        this.method = method;
+        parameters = method.getParameterTypes();
+        acceptsContext = parameters.length > 0 && ExecutionContext.class.isAssignableFrom(parameters[0]);
+        isVoid = method.getReturnType().equals(Void.TYPE);
+    }
+
+    /**
+     * @param method
+     *            the method
+     * @return the invoker for the method
+     */
+    static MethodInvoker of(final Method method) {
+        return INVOKERS.getUnchecked(method);
+    }
+
+    /**
+     * @param count
+     *            the number of arguments
+     * @param injected
+     *            true if the {@link ExecutionContext} is injected
+     * @return true if the method can be invoked with such a number of
+     *         arguments
+     */
+    boolean acceptsArguments(final int count, final boolean injected) {
+        final int actual = count + (injected ? 1 : 0);
+        return method.isVarArgs() ? actual >= parameters.length - 1 : actual == parameters.length;
+    }
+
+    /**
+     * @param n
+     *            the position of the argument, including the
+     *            {@link ExecutionContext} if injected
+     * @return the expected type of the argument. For the trailing arguments of
+     *         variable arity methods, this is the component type of the array
+     */
+    Class<?> argumentType(final int n) {
+        if (method.isVarArgs() && n >= parameters.length - 1) {
+            return parameters[parameters.length - 1].getComponentType();
+        }
+        return parameters[n];
+    }
+
+    /**
+     * @return true if the first parameter of the method is an
+     *         {@link ExecutionContext}
+     */
+    boolean acceptsContext() {
+        return acceptsContext;
+    }
+
+    /**
+     * @return the method
+     */
+    Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @param args
+     *            the arguments
+     * @return true if the {@link ExecutionContext} must be passed as first
+     *         argument
+     */
+    boolean injectsContext(final Object[] args) {
+        return acceptsContext && (args.length == 0 || !(args[0] instanceof ExecutionContext));
+    }
+
+    /**
+     * @param context
+     *            the {@link ExecutionContext}, injected if the method requires it
+     * @param target
+     *            the target object (ignored in case of static invocation)
+     * @param args
+     *            the arguments
+     * @return the result of the invocation
+     */
+    Object invoke(final ExecutionContext context, final Object target, final Object[] args) {
+        final MethodHandle handle = handleFor(args.length, injectsContext(args));
+        final Object result;
+        try {
+            result = (Object) handle.invokeExact(target, context, args);
+        } catch (ArgumentTypeMismatch e) {
+            throw new UnsupportedOperationException(e.getMessage()
+                    + ": cannot invoke " + method
+                    + " with arguments " + ReflectionUtils.formatArguments(args)
+                    + (Modifier.isStatic(method.getModifiers()) ? "" : " on " + target), e);
+        } catch (Error e) { // NOPMD: errors must not be wrapped
+            throw e;
+        } catch (Throwable e) { // NOPMD: Generic exception caught by purpose
+            throw new UnsupportedOperationException("Invocation of "
+                    + method
+                    + (target == null ? "" : " on " + target)
+                    + " with arguments " + ReflectionUtils.formatArguments(args)
+                    + " failed because of an internal "
+                    + e.getClass().getSimpleName()
+                    + "; please look at the stacktrace for further information", e);
+        }
+        return result == null && isVoid ? Unit.UNIT : result;
+    }
+
+    /**
+     * Prepares the handle used when invoking with the provided number of
+     * arguments, none of which is an {@link ExecutionContext}.
+     *
+     * @param arity
+     *            the number of arguments
+     */
+    void prepare(final int arity) {
+        handleFor(arity, acceptsContext);
+    }
+
+    private MethodHandle handleFor(final int arity, final boolean injectContext) {
+        final int index = 2 * arity + (injectContext ? 1 : 0);
+        MethodHandle[] current = handles;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        final MethodHandle handle = prepare(arity, injectContext);
+        synchronized (this) {
+            current = handles;
+            if (index >= current.length) {
+                current = Arrays.copyOf(current, index + 1);
+            } else {
+                current = current.clone();
+            }
+            current[index] = handle;
+            handles = current;
+        }
+        return handle;
+    }
+
+    /*
+     * The resulting handle has type (Object target, ExecutionContext context, Object[] args) -> Object
+     */
+    private MethodHandle prepare(final int arity, final boolean injectContext) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method).asFixedArity();
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Method " + method
+                    + " cannot get invoked because it is not accessible.", e);
+        }
+        final int provided = arity + (injectContext ? 1 : 0);
+        if (method.isVarArgs()) {
+            handle = handle.asCollector(parameters[parameters.length - 1], provided - parameters.length + 1);
+        } else if (provided != parameters.length) {
+            throw new IllegalArgumentException("Number of parameters of " + method
+                    + " does not match the number of provided arguments " + arity);
+        }
+        /*
+         * Receiver
+         */
+        if (Modifier.isStatic(method.getModifiers())) {
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        } else {
+            handle = MethodHandles.filterArguments(handle, 0, converterFor(method.getDeclaringClass()));
+        }
+        /*
+         * Context
+         */
+        if (!injectContext) {
+            handle = MethodHandles.dropArguments(handle, 1, ExecutionContext.class);
+        }
+        /*
+         * Arguments
+         */
+        final MethodHandle[] converters = new MethodHandle[arity];
+        for (int i = 0; i < arity; i++) {
+            converters[i] = converterFor(handle.type().parameterType(2 + i));
+        }
+        handle = MethodHandles.filterArguments(handle, 2, converters);
+        return handle
+                .asType(handle.type().changeReturnType(Object.class))
+                .asSpreader(Object[].class, arity)
+                .asType(INVOCATION);
+    }
+
+    private static MethodHandle converterFor(final Class<?> expected) {
+        return MethodHandles.insertArguments(CONVERTER, 0, expected, Primitives.wrap(expected))
+                .asType(MethodType.methodType(expected, Object.class));
+    }
+
+    /*
+     * Same coercion rules of ReflectionUtils: numbers get cast to the expected
+     * numeric type, everything else must be already compatible.
+     */
+    @SuppressWarnings("unused") // Invoked through CONVERTER
+    private static Object convert(final Class<?> expected, final Class<?> wrapper, final Object arg) {
+        if (arg == null) {
+            if (expected.isPrimitive()) {
+                throw new ArgumentTypeMismatch();
+            }
+            return null;
+        }
+        if (wrapper.isInstance(arg)) {
+            return arg;
+        }
+        if (arg instanceof Number && ReflectionUtils.classIsNumber(expected)) {
+            return ReflectionUtils.castIfNeeded(expected, (Number) arg);
+        }
+        throw new ArgumentTypeMismatch();
+    }
+
+    /**
+     * Raised when an argument can not be converted to the expected type. It
+     * is never raised by the invoked method.
+     */
+    private static final class ArgumentTypeMismatch extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private ArgumentTypeMismatch() {
+            super("argument type mismatch");
+        }
+    }
+
+}
@@ -64,6 +64,30 @@ public enum Op1 implements WithBytecode {
         return fun.apply(a);
     }
 
+    /**
+     * Same as {@link #run(Object)}, for an operand known to be a
+     * {@link Double}: type dispatch is skipped.
+     *
+     * @param a
+     *            the operand
+     * @return the result of the evaluation
+     * @throws UnsupportedOperationException
+     *             if this operator does not {@link #supportsDoubles()}
+     */
+    public Object runOnDouble(final double a) {
+        if (this == MINUS) {
+            return -a;
+        }
+        throw new UnsupportedOperationException(opName + " can not be applied to numbers");
+    }
+
+    /**
+     * @return true if {@link #runOnDouble(double)} can be used
+     */
+    public boolean supportsDoubles() {
+        return this == MINUS;
+    }
+
     @Override
     public String toString() {
         return opName;
@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 import java.util.stream.IntStream;
 
 import org.apache.commons.math3.util.FastMath;
@@ -39,6 +40,7 @@ import org.protelis.lang.datatype.DatatypeFactory;
 import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.Fields;
 import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.datatype.impl.DoubleTupleImpl;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -53,7 +55,7 @@ public enum Op2 implements WithBytecode {
     /** Inequality comparison operation. */
     DIFFERS(BINARY_DIFFERS, "!=", (a, b) -> !Op2.areEquals(a, b)),
     /** Arithmetic division operation. */
-    DIVIDE(BINARY_DIVIDE, "/", Op2::divide),
+    DIVIDE(BINARY_DIVIDE, "/", Op2::divide, Op2::divide),
     /** Equality comparison operation. */
     EQUALS(BINARY_EQUALS, "==", Op2::areEquals),
     /** Greater-than comparison operation. */
@@ -61,25 +63,25 @@ public enum Op2 implements WithBytecode {
     /** Greater-than-or-equal comparison operation. */
     GREATER_EQUAL(BINARY_GREATER_EQUAL, ">=", Op2::greaterEquals),
     /** Maximum of two numbers or other Comparable objects. */
-    MAX(BINARY_MAX, "max", Op2::max),
+    MAX(BINARY_MAX, "max", Op2::max, Op2::max),
     /** Minimum of two numbers or other Comparable objects. */
-    MIN(BINARY_MIN, "min", Op2::min),
+    MIN(BINARY_MIN, "min", Op2::min, Op2::min),
     /** Arithmetic subtraction operation. */
-    MINUS(BINARY_MINUS, "-", Op2::minus),
+    MINUS(BINARY_MINUS, "-", Op2::minus, Op2::minus),
     /** Modulus operation. */
-    MODULUS(BINARY_MODULUS, "%", Op2::modulus),
+    MODULUS(BINARY_MODULUS, "%", Op2::modulus, Op2::modulus),
     /** Logical OR operation. */
     OR(BINARY_OR, "||", Op2::or),
     /** Arithmetic addition operation. */
-    PLUS(BINARY_PLUS, "+", Op2::plus),
+    PLUS(BINARY_PLUS, "+", Op2::plus, Op2::plus),
     /** Exponent operation. */
-    POWER(BINARY_POWER, "^", Op2::pow),
+    POWER(BINARY_POWER, "^", Op2::pow, FastMath::pow),
     /** Less-than comparison operation. */
     SMALLER(BINARY_SMALLER, "<", Op2::smaller),
     /** Less-than-or-equal comparison operation. */
     SMALLER_EQUAL(BINARY_SMALLER_EQUAL, "<=", Op2::smallerEquals),
     /** Arithmetic multiplication operation. */
-    TIMES(BINARY_TIMES, "*", Op2::times);
+    TIMES(BINARY_TIMES, "*", Op2::times, Op2::times);
 
     private static final String UNCHECKED = "unchecked";
     private static final int[] BOTH = { 0, 1 };
@@ -97,6 +99,18 @@ public enum Op2 implements WithBytecode {
         opName = name;
     }
 
+    /**
+     * @param primitive
+     *            the same operation on primitive doubles, which must return
+     *            the same value that function returns on {@link Double}s.
+     *            The function returned by {@link #getFunction()} also
+     *            implements {@link DoubleBinaryOperator}, so that numeric data
+     *            structures can skip boxing.
+     */
+    Op2(final Bytecode bytecode, final String name, final BinaryOperation function, final PrimitiveOperation primitive) {
+        this(bytecode, name, new NumericOperation(function, primitive));
+    }
+
     /**
      * @return The function implementing this operator
      */
@@ -124,6 +138,48 @@ public enum Op2 implements WithBytecode {
         return fun.apply(a, b);
     }
 
+    /**
+     * Same as {@link #run(Object, Object)}, for operands known to be
+     * {@link Double}s: type dispatch is skipped.
+     *
+     * @param a
+     *            First input
+     * @param b
+     *            Second input
+     * @return result of applying the operator to a and b
+     * @throws UnsupportedOperationException
+     *             if this operator does not {@link #supportsDoubles()}
+     */
+    @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
+    public Object runOnDoubles(final double a, final double b) {
+        switch (this) {
+        case DIFFERS:
+            return a != b;
+        case EQUALS:
+            return a == b;
+        case GREATER:
+            return a > b;
+        case GREATER_EQUAL:
+            return a >= b;
+        case SMALLER:
+            return a < b;
+        case SMALLER_EQUAL:
+            return a <= b;
+        default:
+            if (fun instanceof DoubleBinaryOperator) {
+                return ((DoubleBinaryOperator) fun).applyAsDouble(a, b);
+            }
+            throw new UnsupportedOperationException(opName + " can not be applied to numbers");
+        }
+    }
+
+    /**
+     * @return true if {@link #runOnDoubles(double, double)} can be used
+     */
+    public boolean supportsDoubles() {
+        return this != AND && this != OR;
+    }
+
     @Override
     public String toString() {
         return opName;
@@ -150,7 +206,11 @@ public enum Op2 implements WithBytecode {
     }
 
     private static Object divide(final Object a, final Object b) {
-        return arithmetic("/", a, b, (v1, v2) -> v1 / v2);
+        return arithmetic("/", a, b, Op2::divide);
+    }
+
+    private static double divide(final double a, final double b) {
+        return a / b;
     }
 
     @SuppressFBWarnings("FE_FLOATING_POINT_EQUALITY")
@@ -241,16 +301,32 @@ public enum Op2 implements WithBytecode {
         return selection("min", a, b, (v1, v2) -> v2);
     }
 
+    private static double min(final double a, final double b) {
+        return a > b ? b : a;
+    }
+
     private static Object max(final Object a, final Object b) {
         return selection("max", a, b, (v1, v2) -> v1);
     }
 
+    private static double max(final double a, final double b) {
+        return a > b ? a : b;
+    }
+
     private static Object minus(final Object a, final Object b) {
-        return arithmetic("-", a, b, (v1, v2) -> v1 - v2);
+        return arithmetic("-", a, b, Op2::minus);
+    }
+
+    private static double minus(final double a, final double b) {
+        return a - b;
     }
 
     private static Object modulus(final Object a, final Object b) {
-        return arithmetic("%", a, b, (v1, v2) -> v1 % v2);
+        return arithmetic("%", a, b, Op2::modulus);
+    }
+
+    private static double modulus(final double a, final double b) {
+        return a % b;
     }
 
     private static Object or(final Object a, final Object b) {
@@ -262,7 +338,7 @@ public enum Op2 implements WithBytecode {
             return a.toString() + b.toString();
         }
         try {
-            return arithmetic("+", a, b, (v1, v2) -> v1 + v2);
+            return arithmetic("+", a, b, Op2::plus);
         } catch (UnsupportedOperationException e) {
             /*
              * Sum falls back to string sum.
@@ -271,43 +347,52 @@ public enum Op2 implements WithBytecode {
         }
     }
 
+    private static double plus(final double a, final double b) {
+        return a + b;
+    }
+
     private static Object pow(final Object a, final Object b) {
-        return arithmetic("^", a, b, (v1, v2) -> FastMath.pow(v1, v2));
+        return arithmetic("^", a, b, FastMath::pow);
     }
 
-    @SuppressWarnings(UNCHECKED)
-    private static <I, O> O arithmetic(final String op, final I a, final I b, final BiFunction<Double, Double, O> f) {
+    private static Object arithmetic(final String op, final Object a, final Object b, final DoubleBinaryOperator f) {
         if (a instanceof Double && b instanceof Double) {
-            return f.apply((Double) a, (Double) b);
+            return f.applyAsDouble((Double) a, (Double) b);
         }
         final boolean aNum = a instanceof Number;
         final boolean bNum = b instanceof Number;
         if (aNum && bNum) {
-            return f.apply(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            return f.applyAsDouble(((Number) a).doubleValue(), ((Number) b).doubleValue());
         }
         final boolean aTup = a instanceof Tuple;
         final boolean bTup = b instanceof Tuple;
         if (aNum && bTup || aTup && bNum) {
-            return (O) tupleArithmetic(op, aNum, aNum ? a : b, (Tuple) (aTup ? a : b), f);
+            return tupleArithmetic(op, aNum, aNum ? a : b, (Tuple) (aTup ? a : b), f);
         }
         if (a instanceof Tuple && b instanceof Tuple) {
             final Tuple ta = (Tuple) a;
             final Tuple tb = (Tuple) b;
             if (ta.size() == tb.size()) {
-                return (O) DatatypeFactory.createTuple(IntStream.range(0, ta.size())
-                        .mapToObj(i -> arithmetic(op, (I) ta.get(i), (I) tb.get(i), f))
+                if (ta instanceof DoubleTupleImpl && tb instanceof DoubleTupleImpl) {
+                    return ((DoubleTupleImpl) ta).zipWith((DoubleTupleImpl) tb, f);
+                }
+                return DatatypeFactory.createTuple(IntStream.range(0, ta.size())
+                        .mapToObj(i -> arithmetic(op, ta.get(i), tb.get(i), f))
                         .toArray());
             }
         }
         return unsupported(op, a, b);
     }
 
-    @SuppressWarnings(UNCHECKED)
-    private static <I, O> Tuple tupleArithmetic(final String op, final boolean numFirst, final I num, final Tuple t, final BiFunction<Double, Double, O> f) {
+    private static Tuple tupleArithmetic(final String op, final boolean numFirst, final Object num, final Tuple t, final DoubleBinaryOperator f) {
+        if (t instanceof DoubleTupleImpl) {
+            final double n = ((Number) num).doubleValue();
+            return ((DoubleTupleImpl) t).mapDoubles(numFirst ? v -> f.applyAsDouble(n, v) : v -> f.applyAsDouble(v, n));
+        }
         return DatatypeFactory.createTuple(IntStream.range(0, t.size())
                 .mapToObj(i -> numFirst
-                        ? arithmetic(op, num, (I) t.get(i), f)
-                        : arithmetic(op, (I) t.get(i), num, f))
+                        ? arithmetic(op, num, t.get(i), f)
+                        : arithmetic(op, t.get(i), num, f))
                 .toArray());
     }
 
@@ -320,7 +405,11 @@ public enum Op2 implements WithBytecode {
     }
 
     private static Object times(final Object a, final Object b) {
-        return arithmetic("*", a, b, (v1, v2) -> v1 * v2);
+        return arithmetic("*", a, b, Op2::times);
+    }
+
+    private static double times(final double a, final double b) {
+        return a * b;
     }
 
     @Override
@@ -330,4 +419,27 @@ public enum Op2 implements WithBytecode {
 
     private interface BinaryOperation extends BinaryOperator<Object>, Serializable { }
 
+    private interface PrimitiveOperation extends DoubleBinaryOperator, Serializable { }
+
+    private static final class NumericOperation implements BinaryOperation, DoubleBinaryOperator {
+        private static final long serialVersionUID = 1L;
+        private final BinaryOperation function;
+        private final PrimitiveOperation primitive;
+
+        private NumericOperation(final BinaryOperation function, final PrimitiveOperation primitive) {
+            this.function = function;
+            this.primitive = primitive;
+        }
+
+        @Override
+        public Object apply(final Object a, final Object b) {
+            return function.apply(a, b);
+        }
+
+        @Override
+        public double applyAsDouble(final double a, final double b) {
+            return primitive.applyAsDouble(a, b);
+        }
+    }
+
 }
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.util;
+
+import java.util.Map;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.Field;
+
+/**
+ * Specialized reduction kernels for fields of {@link Double} and
+ * {@link Boolean} values, used by {@link HoodOp}. Kernels run as plain loops
+ * over the field entries, without boxing intermediate results and without
+ * looking up defaults by class.
+ *
+ * Every kernel returns null if the field content is not supported (e.g., the
+ * local value is not a {@link Double}, or some neighbor carries a value of a
+ * different type). In such case, the caller must fall back to the generic
+ * reduction, which takes care of type coercion and error reporting.
+ */
+final class PrimitiveHoodReductions {
+
+    private static final Double MAX_DEFAULT = Double.NEGATIVE_INFINITY;
+    private static final Double MEAN_DEFAULT = Double.NaN;
+    private static final Double MIN_DEFAULT = Double.POSITIVE_INFINITY;
+    private static final Double SUM_DEFAULT = 0d;
+
+    private PrimitiveHoodReductions() {
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the logical product of the field values, or null if the field
+     *         does not carry {@link Boolean}s
+     */
+    static Object all(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Boolean)) {
+            return null;
+        }
+        /*
+         * Starting from the neutral element also provides the default for empty fields
+         */
+        boolean result = true;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Boolean)) {
+                    return null;
+                }
+                result &= (Boolean) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the logical sum of the field values, or null if the field does
+     *         not carry {@link Boolean}s
+     */
+    static Object any(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Boolean)) {
+            return null;
+        }
+        boolean result = false;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Boolean)) {
+                    return null;
+                }
+                result |= (Boolean) value;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the maximum value of the field, or null if the field does not
+     *         carry {@link Double}s
+     */
+    static Object max(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Double)) {
+            return null;
+        }
+        Object best = null;
+        double bestValue = Double.NaN;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                final double current = (Double) value;
+                /*
+                 * Same selection rule of Op2.MAX: on ties (and NaNs) the latest value wins
+                 */
+                if (best == null || !(bestValue > current)) {
+                    best = value;
+                    bestValue = current;
+                }
+            }
+        }
+        return best == null ? MAX_DEFAULT : best;
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the arithmetic mean of the field values, or null if the field
+     *         does not carry {@link Double}s
+     */
+    static Object mean(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Double)) {
+            return null;
+        }
+        double sum = 0;
+        int count = 0;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                sum = count == 0 ? (Double) value : sum + (Double) value;
+                count++;
+            }
+        }
+        return count == 0 ? MEAN_DEFAULT : sum / count;
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the minimum value of the field, or null if the field does not
+     *         carry {@link Double}s
+     */
+    static Object min(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Double)) {
+            return null;
+        }
+        Object best = null;
+        double bestValue = Double.NaN;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                final double current = (Double) value;
+                /*
+                 * Same selection rule of Op2.MIN: on ties (and NaNs) the earliest value wins
+                 */
+                if (best == null || bestValue > current) {
+                    best = value;
+                    bestValue = current;
+                }
+            }
+        }
+        return best == null ? MIN_DEFAULT : best;
+    }
+
+    /**
+     * @param f
+     *            the field
+     * @param inclusive
+     *            true if the local value should be considered
+     * @return the sum of the field values, or null if the field does not carry
+     *         {@link Double}s
+     */
+    static Object sum(final Field<Object> f, final boolean inclusive) {
+        if (!(f.getLocalValue() instanceof Double)) {
+            return null;
+        }
+        double sum = 0;
+        boolean empty = true;
+        final DeviceUID local = f.getLocalDevice();
+        for (final Map.Entry<DeviceUID, Object> entry : f.iterable()) {
+            if (inclusive || !local.equals(entry.getKey())) {
+                final Object value = entry.getValue();
+                if (!(value instanceof Double)) {
+                    return null;
+                }
+                /*
+                 * Start from the first value rather than from zero, so that -0.0 is preserved
+                 */
+                sum = empty ? (Double) value : sum + (Double) value;
+                empty = false;
+            }
+        }
+        return empty ? SUM_DEFAULT : sum;
+    }
+
+}
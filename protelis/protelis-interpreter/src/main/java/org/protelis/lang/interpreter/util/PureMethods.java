@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (C) 2014, 2015, Danilo Pianini and contributors
+ * listed in the project's build.gradle or pom.xml file.
+ *
+ * This file is part of Protelis, and is distributed under the terms of
+ * the GNU General Public License, with a linking exception, as described
+ * in the file LICENSE.txt in this project's top directory.
+ *******************************************************************************/
+package org.protelis.lang.interpreter.util;
+
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the Java methods that can be safely invoked in parallel on the
+ * devices of a field. A method is considered pure if it is annotated with
+ * {@link Pure}, or if it has been registered via {@link #register(Method)}:
+ * the latter allows for marking methods of libraries whose source can not be
+ * modified.
+ *
+ * Pure methods invoked on fields whose neighborhood is at least as large as
+ * {@link #getParallelThreshold()} get evaluated on the common fork-join pool,
+ * unless they take the {@link org.protelis.vm.ExecutionContext} as first
+ * parameter: the context is not thread safe, so such methods are always
+ * invoked sequentially.
+ */
+public final class PureMethods {
+
+    /**
+     * Default minimum neighborhood size for parallel invocation.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 256;
+    private static final Set<Method> REGISTERED = ConcurrentHashMap.newKeySet();
+    private static volatile int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private PureMethods() {
+    }
+
+    /**
+     * @return the minimum neighborhood size for which pure methods get
+     *         invoked in parallel
+     */
+    public static int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * @param method
+     *            the method
+     * @return true if the method is annotated with {@link Pure} or has been
+     *         registered as pure
+     */
+    public static boolean isPure(final Method method) {
+        return method.isAnnotationPresent(Pure.class) || REGISTERED.contains(method);
+    }
+
+    /**
+     * Marks a method as pure and thread safe.
+     *
+     * @param method
+     *            the method
+     */
+    public static void register(final Method method) {
+        REGISTERED.add(Objects.requireNonNull(method));
+    }
+
+    /**
+     * @param threshold
+     *            the minimum neighborhood size for which pure methods get
+     *            invoked in parallel. {@link Integer#MAX_VALUE} disables
+     *            parallel invocation.
+     */
+    public static void setParallelThreshold(final int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("The parallel threshold can not be negative: " + threshold);
+        }
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Removes a method from the registry. Methods annotated with {@link Pure}
+     * are not affected.
+     *
+     * @param method
+     *            the method
+     */
+    public static void unregister(final Method method) {
+        REGISTERED.remove(method);
+    }
+
+}
@@ -8,9 +8,8 @@
  *******************************************************************************/
 package org.protelis.lang.interpreter.util;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -27,14 +26,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import org.apache.commons.lang3.ClassUtils;
-import org.apache.commons.lang3.reflect.MethodUtils;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.ImmutableTriple;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.protelis.lang.datatype.Field;
 import org.protelis.lang.datatype.Fields;
-import org.protelis.lang.datatype.Unit;
 import org.protelis.vm.ExecutionContext;
 
 import com.google.common.cache.CacheBuilder;
@@ -44,7 +41,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.primitives.Primitives;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import gnu.trove.list.TIntList;
 import gnu.trove.list.array.TIntArrayList;
 
@@ -83,7 +79,7 @@ public final class ReflectionUtils {
     private ReflectionUtils() {
     }
 
-    private static Number castIfNeeded(final Class<?> dest, final Number arg) {
+    static Number castIfNeeded(final Class<?> dest, final Number arg) {
         Objects.requireNonNull(dest);
         Objects.requireNonNull(arg);
         if (dest.isAssignableFrom(arg.getClass())) {
@@ -102,7 +98,7 @@ public final class ReflectionUtils {
      * @return true if the class is a subclass of {@link Number} or it is a
      *         number having primitive representation in Java
      */
-    private static boolean classIsNumber(final Class<?> clazz) {
+    static boolean classIsNumber(final Class<?> clazz) {
         return Number.class.isAssignableFrom(clazz) || NUMBER_CASTER.containsKey(clazz);
     }
 
@@ -114,23 +110,6 @@ public final class ReflectionUtils {
         return Primitives.allWrapperTypes().contains(clazz);
     }
 
-    private static boolean compatibleLength(@Nonnull final Method m, final int args, @Nullable final boolean toBeInjected) {
-        final Class<?>[] paramTypes = Objects.requireNonNull(m, "Invoked method cannot be null.")
-                .getParameterTypes();
-        /*
-         * The method must be invoked with enough arguments to match at least the count
-         * of non-ExecutionContext parameters (except if varargs, in which case one less
-         * argument is allowed), and at most the total number of parameters (unless it
-         * is varargs, in which case there is no limit)
-         */
-        final int actualArgsLength = (toBeInjected ? 1 : 0) + args;
-        return m.isVarArgs() ? actualArgsLength >= paramTypes.length - 1 : actualArgsLength == paramTypes.length;
-    }
-
-    private static boolean compatibleLength(@Nonnull final Method m, final int args, @Nullable final Class<?> firstArgType) {
-        return compatibleLength(m, args, willBeInjected(m, firstArgType));
-    }
-
     private static int computePointsForWrapper(final Class<?> primitive, final Class<?> wrapper) {
         final Class<?> wrapped = ClassUtils.primitiveToWrapper(primitive);
         if (wrapped.equals(wrapper)) {
@@ -142,7 +121,7 @@ public final class ReflectionUtils {
         return 0;
     }
 
-    private static String formatArguments(final Object[] args) {
+    static String formatArguments(final Object[] args) {
         return Arrays.stream(args)
             .map(it -> it + ": " + it.getClass().getSimpleName())
             .collect(Collectors.joining(",", "(", ")"));
@@ -200,108 +179,142 @@ public final class ReflectionUtils {
             @Nonnull final Method toInvoke,
             @Nullable final Object target,
             @Nonnull final Object[] args) {
-        final boolean toBeInjected = willBeInjected(toInvoke, args);
-        if (!compatibleLength(toInvoke, args.length, toBeInjected)) {
-            throw new IllegalArgumentException("Number of parameters of " + toInvoke
+        return invokeFieldable(context, MethodInvoker.of(toInvoke), target, args);
+    }
+
+    /**
+     * Invokes a method. If there are fields involved, field operations are
+     * applied
+     * 
+     * @param context
+     *            the current {@link ExecutionContext}
+     * @param invoker
+     *            the invoker of the method
+     * @param target
+     *            the target object (can be null in case of static invocation)
+     * @param args
+     *            the arguments for the method
+     * @return the result of the method invocation
+     */
+    public static Object invokeFieldable(
+            @Nonnull final ExecutionContext context,
+            @Nonnull final MethodInvoker invoker,
+            @Nullable final Object target,
+            @Nonnull final Object[] args) {
+        final boolean toBeInjected = invoker.injectsContext(args);
+        if (!invoker.acceptsArguments(args.length, toBeInjected)) {
+            throw new IllegalArgumentException("Number of parameters of " + invoker.getMethod()
                     + " does not match the provided array " + Arrays.toString(args));
         }
         final boolean fieldTarget = target instanceof Field;
-        final TIntList fieldIndexes = new TIntArrayList(args.length);
+        TIntList fieldIndexes = null;
         for (int i = 0; i < args.length; i++) {
             if (args[i] instanceof Field
-                    && !Field.class.isAssignableFrom(nthArgumentType(toInvoke, toBeInjected ? i + 1 : i))) {
+                    && !Field.class.isAssignableFrom(invoker.argumentType(toBeInjected ? i + 1 : i))) {
+                if (fieldIndexes == null) {
+                    fieldIndexes = new TIntArrayList(args.length);
+                }
                 fieldIndexes.add(i);
             }
         }
-        if (fieldTarget || fieldIndexes.size() > 0) {
+        if (fieldTarget || fieldIndexes != null) {
+            final int[] fieldIndexesArray = fieldIndexes == null ? new int[0] : fieldIndexes.toArray();
+            final Field<?> refField = (Field<?>) (fieldTarget ? target : args[fieldIndexesArray[0]]);
+            if (refField.size() >= PureMethods.getParallelThreshold()
+                    && !invoker.acceptsContext()
+                    && PureMethods.isPure(invoker.getMethod())) {
+                /*
+                 * Large neighborhood and thread safe method: neighbors are
+                 * computed in parallel. The context is not thread safe, methods
+                 * using it are always invoked sequentially.
+                 */
+                return Fields.applyInParallel(
+                        (actualT, actualA) -> invoker.invoke(context, actualT, actualA),
+                        fieldTarget,
+                        fieldIndexesArray,
+                        target,
+                        args);
+            }
             return Fields.apply(
-                    (actualT, actualA) -> ReflectionUtils.invokeMethod(context, toInvoke, actualT, actualA),
+                    (actualT, actualA) -> invoker.invoke(context, actualT, actualA),
                     fieldTarget,
-                    fieldIndexes.toArray(),
+                    fieldIndexesArray,
                     target,
                     args);
         }
-        return ReflectionUtils.invokeMethod(context, toInvoke, target, args);
+        return invoker.invoke(context, target, args);
     }
 
-    @SuppressFBWarnings(value = "REC_CATCH_EXCEPTION", justification = "we need to intercept all runtime events")
-    private static Object invokeMethod(
-            @Nonnull final ExecutionContext context,
-            @Nonnull final Method method,
-            @Nullable final Object target,
-            @Nonnull final Object[] args) {
-        final Object[] useArgs = repackageIfRequired(context, method, args);
+    /**
+     * Binds a static method regardless of the types of the arguments it will
+     * be invoked with. This is possible if the class has a single accessible
+     * method with the provided name that can be invoked with such a number of
+     * arguments, as no overload resolution is required.
+     *
+     * @param clazz
+     *            the class declaring the method
+     * @param methodName
+     *            the name of the method
+     * @param arity
+     *            the number of arguments
+     * @return the invoker of the method, ready to be invoked with such a
+     *         number of arguments, or {@link Optional#empty()} if the method
+     *         can not be bound
+     */
+    public static Optional<MethodInvoker> bindStaticMethod(
+            @Nonnull final Class<?> clazz,
+            @Nonnull final String methodName,
+            final int arity) {
+        final MethodIndex index = MethodIndex.of(clazz);
+        final MethodIndex.Candidate[] candidates = index.candidates(methodName, arity, false);
+        /*
+         * Whether the context gets injected depends on the type of the first
+         * argument, hence both selections must lead to the same method
+         */
+        if (candidates.length != 1
+                || !Modifier.isStatic(candidates[0].getMethod().getModifiers())
+                || !Arrays.equals(candidates, index.candidates(methodName, arity, true))) {
+            return Optional.empty();
+        }
+        final MethodInvoker invoker = MethodInvoker.of(candidates[0].getMethod());
         try {
-            return invokePossiblyVoidMethod(method, target, useArgs);
-        } catch (Exception exc) { // NOPMD: Generic exception caught by purpose
+            invoker.prepare(arity);
+        } catch (UnsupportedOperationException e) {
             /*
-             * Failure: maybe some cast was required, if arguments were actually passed?
+             * Not accessible: let the invocation report the error
              */
-            if (useArgs.length == 0) {
-                throw new IllegalStateException(exc);
-            }
-            final Class<?>[] params = method.getParameterTypes();
-            for (int i = 0; i < params.length; i++) {
-                final Class<?> expected = params[i];
-                final Object actual = useArgs[i];
-                if (!expected.isAssignableFrom(actual.getClass())
-                        && classIsNumber(expected)
-                        && actual instanceof Number) {
-                    useArgs[i] = castIfNeeded(expected, (Number) actual);
-                }
-            }
-            try {
-                return invokePossiblyVoidMethod(method, target, useArgs);
-            } catch (IllegalAccessException e) {
-                throw new UnsupportedOperationException("Method " + method // NOPMD: false positive
-                        + " cannot get invoked because it is not accessible.", e); 
-            } catch (IllegalArgumentException e) {
-                final boolean isStatic = target == null;
-                final String errorMessage = Optional.ofNullable(e.getMessage())
-                        .orElse("Probable argument type mismatch")
-                    + ": cannot invoke "
-                    + method
-                    + " with arguments " + formatArguments(useArgs)
-                    + (isStatic ? "" : " on " + target);
-                throw new UnsupportedOperationException(errorMessage, e); // NOPMD: false positive
-            } catch (InvocationTargetException e) {
-                final Throwable rootCause = e.getCause();
-                final String errorMessage = "Invocation of "
-                    + method
-                    + (target == null ? "" : " on " + target)
-                    + " with arguments " + formatArguments(useArgs)
-                    + " failed because of an internal "
-                    + (rootCause == null ? "unidentified error" : rootCause.getClass().getSimpleName())
-                    + "; please look at the stacktrace for further information";
-                throw new UnsupportedOperationException(errorMessage, e); // NOPMD: false positive
-            }
+            return Optional.empty();
         }
+        return Optional.of(invoker);
     }
 
-    private static Object invokePossiblyVoidMethod(
-            @Nonnull final Method method,
-            @Nullable final Object target,
-            @Nonnull final Object[] args) throws IllegalAccessException, InvocationTargetException {
-        final Object result = method.invoke(target, args);
-        if (result == null && method.getReturnType().equals(Void.TYPE)) {
-            return Unit.UNIT;
-        }
-        return result;
+    /**
+     * Selects the method that best matches the provided argument classes, as
+     * done when the method cache misses. The method cache is neither used nor
+     * populated.
+     *
+     * @param clazz
+     *            the class declaring the method
+     * @param methodName
+     *            the name of the method
+     * @param argClasses
+     *            the classes of the arguments
+     * @return the best matching method
+     * @throws IllegalArgumentException
+     *             if no method can be called with such arguments
+     */
+    public static Method resolveMethod(
+            @Nonnull final Class<?> clazz,
+            @Nonnull final String methodName,
+            @Nonnull final Class<?>... argClasses) {
+        return loadBestMethod(clazz, methodName, argClasses);
     }
 
     private static Method loadBestMethod(final Class<?> clazz, final String methodName, final Class<?>[] argClass) {
         Objects.requireNonNull(clazz, "The class on which the method will be invoked can not be null.");
         Objects.requireNonNull(methodName, "Method name can not be null.");
         Objects.requireNonNull(argClass, "Method arguments can not be null.");
-        final Method[] candidates = Arrays.stream(clazz.getMethods())
-            // Parameter number
-            .filter(m -> compatibleLength(m, argClass.length, argClass.length > 0 ? argClass[0] : null))
-            // Method name
-            .filter(m -> m.getName().equals(methodName))
-            // Only pick accessibile methods, mapping to superclass/interfaces if needed
-            .map(MethodUtils::getAccessibleMethod)
-            .filter(Objects::nonNull)
-            .toArray(Method[]::new);
+        final MethodIndex.Candidate[] candidates = MethodIndex.of(clazz).candidates(methodName, argClass);
         if (candidates.length == 0) {
             throw new IllegalArgumentException("No accessible method named " + methodName
                     + " callable with " + Arrays.toString(argClass) + " parameters is available in " + clazz);
@@ -310,16 +323,15 @@ public final class ReflectionUtils {
             /*
              * In case of 0-arity, the single candidate can be selected directly
              */
-            return candidates[0];
+            return candidates[0].getMethod();
         }
         /*
          * Deal with Java method overloading scoring methods
          */
         final List<Pair<Integer, Method>> lm = new ArrayList<>(candidates.length);
-        for (final Method m: candidates) {
-            final Class<?>[] expectedParameters = m.getParameterTypes();
+        for (final MethodIndex.Candidate candidate: candidates) {
             final Class<?>[] actualArgClass; // NOPMD: false positive
-            if (shouldPushContext(expectedParameters, argClass)) {
+            if (candidate.pushesContext(argClass)) {
                 /*
                  * Push "self" as implicit parameter
                  */
@@ -332,7 +344,7 @@ public final class ReflectionUtils {
             boolean compatible = true;
             int p = 0;
             for (int i = 0; compatible && i < actualArgClass.length; i++) {
-                final Class<?> expected = nthArgumentType(m, i);
+                final Class<?> expected = candidate.argumentType(i);
                 final Class<?> actual = actualArgClass[i];
                 if (actual == null && !classIsPrimitive(expected) || expected.isAssignableFrom(actual)) {
                     /*
@@ -360,9 +372,9 @@ public final class ReflectionUtils {
                  * Early intercept the case of single candidate
                  */
                 if (candidates.length == 1) {
-                    return m;
+                    return candidate.getMethod();
                 }
-                lm.add(new ImmutablePair<>(p, m));
+                lm.add(new ImmutablePair<>(p, candidate.getMethod()));
             }
         }
         /*
@@ -373,54 +385,12 @@ public final class ReflectionUtils {
                 .map(Pair::getValue)
                 .orElseThrow(() -> new IllegalStateException("Method selection for " + methodName
                     + " inside " + clazz
-                    + " has been restricted to " + Arrays.toString(candidates)
+                    + " has been restricted to " + Arrays.stream(candidates)
+                        .map(MethodIndex.Candidate::getMethod)
+                        .collect(Collectors.toList())
                     + " however none of them is compatible with arguments " + Arrays.toString(argClass)));
     }
 
-    private static Class<?> nthArgumentType(final Method m, final int n) {
-        final Class<?>[] expectedArgs = m.getParameterTypes();
-        if (m.isVarArgs() && n >= (expectedArgs.length - 1)) {
-            final Class<?> varargType = expectedArgs[expectedArgs.length - 1];
-            return varargType.getComponentType();
-        } else {
-            return expectedArgs[n];
-        }
-    }
-
-    private static Object[] repackageIfRequired(@Nonnull final ExecutionContext context, @Nonnull final Method m, @Nonnull final Object[] args) {
-        final Class<?>[] expectedArgs = m.getParameterTypes();
-        final boolean pushContext = shouldPushContext(expectedArgs, args);
-        if (m.isVarArgs() || pushContext) {
-            // We will repackage into an array of the expected length
-            final Object[] newargs = new Object[expectedArgs.length];
-            // repackage all the base args
-            final int start; // NOPMD: false positive
-            if (pushContext) {
-                newargs[0] = context;
-                start = 1;
-            } else {
-                start = 0;
-            }
-            final int copiedArgCount = expectedArgs.length - start - (m.isVarArgs() ? 1 : 0);
-            System.arraycopy(args, 0, newargs, start, Math.max(copiedArgCount, 0));
-            if (m.isVarArgs()) {
-                // Determine how many arguments need repackaging
-                final int numVarArgs = args.length - copiedArgCount;
-                // Make an array of the appropriate type, then fill it in
-                final Class<?> varargType = expectedArgs[copiedArgCount];
-                final Object[] vararg = (Object[]) Array.newInstance(varargType.getComponentType(), numVarArgs);
-                if (numVarArgs >= 0) {
-                    System.arraycopy(args, expectedArgs.length - 1, vararg, 0, numVarArgs);
-                }
-                // Put the new array in the last argument and return
-                newargs[newargs.length - 1] = vararg;
-            }
-            return newargs;
-        } else {
-            return args;
-        }
-    }
-
     /**
      * @param clazz
      *            the class where to search for suitable methods
@@ -482,33 +452,8 @@ public final class ReflectionUtils {
      * @return the result of the invocation, or an {@link IllegalStateException}
      *         if something goes wrong.
      */
-    private static Method searchBestMethod(final Class<?> clazz, final String methodName, final Object... args) {
+    static Method searchBestMethod(final Class<?> clazz, final String methodName, final Object... args) {
         return searchBestMethod(clazz, methodName, Arrays.asList(args));
     }
 
-    private static boolean shouldPushContext(final Class<?>[] expectedArgs, final Class<?>[] argClass) {
-        return shouldPushContext(expectedArgs, argClass.length, argClass.length == 0 ? null : argClass[0]);
-    }
-
-    private static boolean shouldPushContext(final Class<?>[] expectedArgs, final int argLength, final Class<?> firstArgClass) {
-        return expectedArgs.length == argLength + 1
-                && ExecutionContext.class.isAssignableFrom(expectedArgs[0])
-                && (firstArgClass == null || !ExecutionContext.class.isAssignableFrom(firstArgClass));
-    }
-
-    private static boolean shouldPushContext(final Class<?>[] expectedArgs, final Object[] args) {
-        return shouldPushContext(expectedArgs,
-                args.length,
-                args.length == 0 || args[0] == null ? null : args[0].getClass());
-    }
-
-    private static boolean willBeInjected(@Nonnull final Method m, @Nullable final Class<?> firstArgType) {
-        return m.getParameterTypes().length > 0
-                && ExecutionContext.class.isAssignableFrom(m.getParameterTypes()[0])
-                && (firstArgType == null || !ExecutionContext.class.isAssignableFrom(firstArgType));
-    }
-
-    private static boolean willBeInjected(@Nonnull final Method m, @Nonnull final Object[] args) {
-        return willBeInjected(m, args.length > 0 && args[0] != null ? args[0].getClass() : null);
-    }
 }
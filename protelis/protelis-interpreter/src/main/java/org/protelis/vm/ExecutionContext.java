@@ -12,6 +12,7 @@
 package org.protelis.vm;
 
 import java.util.Map;
+import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
@@ -121,6 +122,35 @@ public interface ExecutionContext {
      */
     Object getVariable(Reference reference);
 
+    /**
+     * Same as {@link #restrictDomain(Field)}, but the returned context keeps
+     * its exports, its persisted state and the variables it binds separate
+     * from the ones of this context. Several isolated contexts can hence be
+     * evaluated concurrently, as long as this context is not used in the
+     * meanwhile. Their state gets visible to this context only once merged
+     * with {@link #mergeIsolated(ExecutionContext)}.
+     *
+     * @param f the field
+     * @return the isolated restricted domain, or an empty {@link Optional}
+     *         if this context does not support isolation
+     */
+    default Optional<ExecutionContext> isolateDomain(final Field<?> f) {
+        return Optional.empty();
+    }
+
+    /**
+     * Merges the exports, the persisted state and the variables of a context
+     * produced by {@link #isolateDomain(Field)} into this context, as if it
+     * had been evaluated as a restricted domain. Merging isolated contexts in
+     * the same order in which restricted domains would have been evaluated
+     * produces the same state.
+     *
+     * @param isolated the isolated context
+     */
+    default void mergeIsolated(final ExecutionContext isolated) {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support isolated domains");
+    }
+
     /**
      * @param id
      *            stack frame type
@@ -133,6 +163,18 @@ public interface ExecutionContext {
      */
     void newCallStackFrame(int... id);
 
+    /**
+     * Same as {@link #newCallStackFrame(int...)} with a single id.
+     * Implementations should override it to avoid allocating an array, as it
+     * gets called for every node evaluation.
+     *
+     * @param id
+     *            stack frame type
+     */
+    default void newCallStackFrame(final int id) {
+        newCallStackFrame(new int[] { id });
+    }
+
     /**
      * @param id
      *            stack frame type
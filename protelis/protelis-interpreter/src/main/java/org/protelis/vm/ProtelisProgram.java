@@ -17,7 +17,9 @@ public interface ProtelisProgram extends Serializable {
 
     /**
      * @return The value computed during the most recent invocation of
-     *         {@link ProtelisProgram#compute(ExecutionContext)}
+     *         {@link ProtelisProgram#compute(ExecutionContext)} or
+     *         {@link ProtelisProgram#evaluate(ExecutionContext)}, including
+     *         those made by a {@link ProtelisVM}
      */
     Object getCurrentValue();
 
@@ -30,6 +32,23 @@ public interface ProtelisProgram extends Serializable {
      */
     void compute(ExecutionContext context);
 
+    /**
+     * Execute one round of computation of this Protelis program, and return
+     * its value, which is also returned by {@link #getCurrentValue()} until the
+     * next round. Implementations which keep no other per-device state can be
+     * shared by many devices, also concurrently, as long as they are evaluated
+     * through this method and each device uses the returned value.
+     *
+     * @param context
+     *            The virtual machine environment in which computation will take
+     *            place.
+     * @return the value computed
+     */
+    default Object evaluate(final ExecutionContext context) {
+        compute(context);
+        return getCurrentValue();
+    }
+
     /**
      * @return Name of the program, or some default name if no specific name is
      *         provided
@@ -16,6 +16,7 @@ public class ProtelisVM {
 
     private final ProtelisProgram prog;
     private final ExecutionContext ctx;
+    private Object currentValue;
 
     /**
      * Create a virtual machine for executing a Protelis program in a particular
@@ -41,7 +42,7 @@ public class ProtelisVM {
         // 1. Take the messages received by neighbors
         ctx.setup();
         // 2. Compute
-        prog.compute(ctx);
+        currentValue = prog.evaluate(ctx);
         // 3. Finalize the new environment and send Messages away
         ctx.commit();
     }
@@ -52,7 +53,7 @@ public class ProtelisVM {
      * @return Last value computed
      */
     public Object getCurrentValue() {
-        return prog.getCurrentValue();
+        return currentValue;
     }
 
 }
@@ -66,6 +66,10 @@ public abstract class AbstractExecutionContext<S extends AbstractExecutionContex
     private final TIntList callStack = new TIntArrayList(10, -1);
     private final CodePathFactory codePathFactory;
     private int deferredExportSize;
+    /*
+     * Context this one has been isolated from, whose variables are visible
+     */
+    private AbstractExecutionContext<S> enclosing;
     private final ExecutionEnvironment env;
     private int exportsSize;
     private Optional<Map<Reference, ?>> functions = Optional.empty();
@@ -261,7 +265,8 @@ public abstract class AbstractExecutionContext<S extends AbstractExecutionContex
 
     @Override
     public final Object getVariable(final Reference name) {
-        return gamma.get(name);
+        final Object value = gamma.get(name);
+        return value == null && enclosing != null ? enclosing.getVariable(name) : value;
     }
 
     /**
@@ -272,6 +277,48 @@ public abstract class AbstractExecutionContext<S extends AbstractExecutionContex
      */
     protected abstract S instance();
 
+    /**
+     * {@inheritDoc}
+     *
+     * The variables of this context are visible in the isolated one. Variables
+     * bound by the isolated context shadow them until the merge, which adds
+     * them to this context.
+     */
+    @Override
+    public final Optional<ExecutionContext> isolateDomain(@Nonnull final Field<?> f) {
+        final S correctlyTypedInstance = restrict(f);
+        final AbstractExecutionContext<S> isolatedInstance = correctlyTypedInstance;
+        isolatedInstance.enclosing = this;
+        isolatedInstance.gamma = new LinkedHashMap<>();
+        isolatedInstance.toSend = new LinkedHashMap<>();
+        isolatedInstance.tobeComputedBeforeSending = new LinkedHashMap<>();
+        isolatedInstance.toStore = new LinkedHashMap<>();
+        return Optional.of(correctlyTypedInstance);
+    }
+
+    @Override
+    public final void mergeIsolated(final ExecutionContext isolated) {
+        if (!(isolated instanceof AbstractExecutionContext)
+                || ((AbstractExecutionContext<?>) isolated).enclosing != this) { // NOPMD: identity is intended
+            throw new IllegalArgumentException(isolated + " has not been isolated from this context");
+        }
+        final AbstractExecutionContext<?> source = (AbstractExecutionContext<?>) isolated;
+        gamma.putAll(source.gamma);
+        mergeInto(toSend, source.toSend, "exports");
+        mergeInto(tobeComputedBeforeSending, source.tobeComputedBeforeSending, "deferred exports");
+        mergeInto(toStore, source.toStore, "persisted states");
+    }
+
+    private static <V> void mergeInto(final Map<CodePath, V> destination, final Map<CodePath, V> source, final String kind) {
+        source.forEach((codePath, value) -> {
+            if (destination.putIfAbsent(codePath, value) != null) {
+                throw new IllegalStateException("Two isolated domains produced " + kind + " with the same code path. "
+                        + "This is probably a bug in Protelis. Debug information: tried to merge " + codePath
+                        + " into " + destination + ". Value to insert: " + value);
+            }
+        });
+    }
+
     @Override
     public final void newCallStackFrame(final byte... id) {
         final int expectedSize = id.length / 4 + Math.min(id.length % 4, 1);
@@ -287,6 +334,12 @@ public abstract class AbstractExecutionContext<S extends AbstractExecutionContex
         newCallStackFrame(compact);
     }
 
+    @Override
+    public final void newCallStackFrame(final int id) {
+        callFrameSizes.push(1);
+        callStack.add(id);
+    }
+
     @Override
     public final void newCallStackFrame(final int... id) {
         if (id.length < 1) {
@@ -309,21 +362,28 @@ public abstract class AbstractExecutionContext<S extends AbstractExecutionContex
     @SuppressWarnings("unchecked")
     @Override
     public final S restrictDomain(@Nonnull final Field<?> f) {
-        if (f.size() > theta.size()) {
-            throw new IllegalArgumentException("Cannot expand domains. Current: " + theta.keySet() + ", desired: " + f.keys());
-        }
         if (f.size() == theta.size()) {
             /*
              * No restriction to perform, the field has the same alignment
              */
             return (S) this;
         }
-        final ImmutableMap<DeviceUID, Map<CodePath, Object>> restricted = theta.entrySet().stream()
-            .filter(it -> f.containsKey(it.getKey()))
-            .collect(ImmutableMap.toImmutableMap(Entry::getKey, Entry::getValue));
+        return restrict(f);
+    }
+
+    private S restrict(final Field<?> f) {
+        if (f.size() > theta.size()) {
+            throw new IllegalArgumentException("Cannot expand domains. Current: " + theta.keySet() + ", desired: " + f.keys());
+        }
+        final Map<DeviceUID, Map<CodePath, Object>> restricted = f.size() == theta.size()
+            ? theta
+            : theta.entrySet().stream()
+                .filter(it -> f.containsKey(it.getKey()))
+                .collect(ImmutableMap.toImmutableMap(Entry::getKey, Entry::getValue));
         final S correctlyTypedInstance = instance();
         final AbstractExecutionContext<S> restrictedInstance = correctlyTypedInstance;
         restrictedInstance.theta = restricted;
+        restrictedInstance.enclosing = enclosing;
         restrictedInstance.gamma = gamma;
         restrictedInstance.toSend = toSend;
         restrictedInstance.tobeComputedBeforeSending = tobeComputedBeforeSending;
@@ -21,6 +21,13 @@ import org.protelis.vm.ProtelisProgram;
 
 /**
  * Base implementation of {@link ProtelisProgram}.
+ *
+ * The evaluation tree holds no per-device state: a program can hence be shared
+ * by many devices, also running on different threads, as long as it is
+ * evaluated through {@link #evaluate(ExecutionContext)}. In this case,
+ * {@link #getCurrentValue()} returns the value of the most recent round of any
+ * of them: devices that need their own value should use a program each (see
+ * {@link #newInstance()}), or read the value returned by the evaluation.
  */
 public final class SimpleProgramImpl implements ProtelisProgram {
 
@@ -28,7 +35,7 @@ public final class SimpleProgramImpl implements ProtelisProgram {
     private static final String DEFAULT_PROGRAM_NAME = "default_module:default_program";
     private final ProtelisAST<?> prog;
     private final String name;
-    private Object result;
+    private volatile Object result;
 
     /**
      * @param source
@@ -56,6 +63,14 @@ public final class SimpleProgramImpl implements ProtelisProgram {
         prog = Objects.requireNonNull(program);
     }
 
+    /**
+     * @return a new program sharing the evaluation tree of this program, with
+     *         its own state
+     */
+    public SimpleProgramImpl newInstance() {
+        return new SimpleProgramImpl(name, prog);
+    }
+
     @Override
     public Object getCurrentValue() {
         return result;
@@ -63,7 +78,14 @@ public final class SimpleProgramImpl implements ProtelisProgram {
 
     @Override
     public void compute(final ExecutionContext context) {
-        result = prog.eval(context);
+        evaluate(context);
+    }
+
+    @Override
+    public Object evaluate(final ExecutionContext context) {
+        final Object value = prog.eval(context);
+        result = value;
+        return value;
     }
 
     @Override
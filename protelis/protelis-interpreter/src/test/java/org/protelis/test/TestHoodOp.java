@@ -0,0 +1,101 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.lang.interpreter.util.HoodOp;
+
+/**
+ * Checks the results of {@link HoodOp} reductions on numeric, boolean and
+ * mixed fields.
+ */
+public class TestHoodOp {
+
+    private static Field<Object> field(final Object local, final Object... neighbors) {
+        final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
+        for (int i = 0; i < neighbors.length; i++) {
+            builder.add(new IntegerUID(i + 1), neighbors[i]);
+        }
+        return builder.build(new IntegerUID(0), local);
+    }
+
+    /**
+     * Numeric reductions.
+     */
+    @Test
+    public void testNumeric() {
+        final Field<Object> f = field(1d, 4d, -2d, 3d);
+        assertEquals(-2d, HoodOp.MIN.run(f, true));
+        assertEquals(-2d, HoodOp.MIN.run(f, false));
+        assertEquals(4d, HoodOp.MAX.run(f, true));
+        assertEquals(6d, HoodOp.SUM.run(f, true));
+        assertEquals(5d, HoodOp.SUM.run(f, false));
+        assertEquals(1.5, HoodOp.MEAN.run(f, true));
+        assertEquals(5d / 3, HoodOp.MEAN.run(f, false));
+    }
+
+    /**
+     * Defaults on fields with no neighbors.
+     */
+    @Test
+    public void testDefaults() {
+        final Field<Object> numbers = field(1d);
+        assertEquals(Double.POSITIVE_INFINITY, HoodOp.MIN.run(numbers, false));
+        assertEquals(Double.NEGATIVE_INFINITY, HoodOp.MAX.run(numbers, false));
+        assertEquals(0d, HoodOp.SUM.run(numbers, false));
+        assertEquals(Double.NaN, HoodOp.MEAN.run(numbers, false));
+        assertEquals(DatatypeFactory.createTuple(), HoodOp.UNION.run(numbers, false));
+        final Field<Object> booleans = field(false);
+        assertEquals(true, HoodOp.ALL.run(booleans, false));
+        assertEquals(false, HoodOp.ANY.run(booleans, false));
+    }
+
+    /**
+     * Boolean reductions.
+     */
+    @Test
+    public void testBoolean() {
+        final Field<Object> f = field(true, true, false);
+        assertEquals(false, HoodOp.ALL.run(f, true));
+        assertEquals(true, HoodOp.ANY.run(f, false));
+        assertEquals(true, HoodOp.ALL.run(field(true, true), true));
+    }
+
+    /**
+     * Ties are resolved as in the generic reduction.
+     */
+    @Test
+    public void testTies() {
+        final Double first = new Double(2); // NOPMD: identity matters here
+        final Double second = new Double(2); // NOPMD: identity matters here
+        final Field<Object> f = field(3d, first, second);
+        assertSame(first, HoodOp.MIN.run(f, true));
+        assertSame(second, HoodOp.MAX.run(field(1d, first, second), true));
+    }
+
+    /**
+     * Union flattens tuples and removes duplicates.
+     */
+    @Test
+    public void testUnion() {
+        final Field<Object> f = field(1d, DatatypeFactory.createTuple(2d, 1d), 3d, 2d);
+        assertEquals(DatatypeFactory.createTuple(2d, 1d, 3d), HoodOp.UNION.run(f, true));
+        assertEquals(DatatypeFactory.createTuple(2d, 1d, 3d), HoodOp.UNION.run(f, false));
+        assertEquals(DatatypeFactory.createTuple(1d), HoodOp.UNION.run(field(1d), true));
+    }
+
+    /**
+     * Non-numeric fields fall back to the generic reductions.
+     */
+    @Test
+    public void testFallback() {
+        assertEquals("a", HoodOp.MIN.run(field("b", "a", "c"), true));
+        assertEquals(DatatypeFactory.createTuple(3d, 4d), HoodOp.MAX.run(
+                field(DatatypeFactory.createTuple(1d, 2d), DatatypeFactory.createTuple(3d, 4d)), true));
+    }
+
+}
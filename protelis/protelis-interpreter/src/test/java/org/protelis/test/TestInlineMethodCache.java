@@ -0,0 +1,102 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.Unit;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.lang.interpreter.util.InlineMethodCache;
+import org.protelis.lang.interpreter.util.ReflectionUtils;
+
+/**
+ * Checks the resolution of Java methods through per-site caches.
+ */
+public class TestInlineMethodCache {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    /**
+     * Methods are resolved as by reflection, and each combination of classes
+     * is remembered once.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testMonomorphic() throws NoSuchMethodException {
+        final InlineMethodCache cache = new InlineMethodCache();
+        final Method length = String.class.getMethod("length");
+        assertEquals(length, cache.lookup(String.class, "length", "a", NO_ARGS));
+        assertEquals(length, cache.lookup(String.class, "length", "bb", NO_ARGS));
+        assertEquals(1, cache.size());
+        assertEquals(String.class.getMethod("charAt", int.class),
+                cache.lookup(String.class, "charAt", "a", new Object[] { 0 }));
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Megamorphic sites stop growing, but keep resolving methods.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testMegamorphic() throws NoSuchMethodException {
+        final InlineMethodCache cache = new InlineMethodCache();
+        final Object[] receivers = { "a", 1, 1d, 1L, 1f, 'a', true };
+        for (final Object receiver : receivers) {
+            assertEquals(receiver.getClass().getMethod("toString"),
+                    cache.lookup(receiver.getClass(), "toString", receiver, NO_ARGS));
+        }
+        assertEquals(InlineMethodCache.MAX_ENTRIES, cache.size());
+    }
+
+    /**
+     * Fields are resolved on the type of their values, and field arguments
+     * are not cached.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testFields() throws NoSuchMethodException {
+        final InlineMethodCache cache = new InlineMethodCache();
+        final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
+        final Field<Object> field = builder.add(new IntegerUID(1), "b").build(new IntegerUID(0), "a");
+        assertEquals(String.class.getMethod("length"), cache.lookup(field.getClass(), "length", field, NO_ARGS));
+        assertEquals(1, cache.size());
+        assertEquals(String.class.getMethod("concat", String.class),
+                cache.lookup(String.class, "concat", "a", new Object[] { field }));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Invocations convert numeric arguments, collect variable arity
+     * arguments, and report {@link Unit#UNIT} for void methods.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testInvoke() throws NoSuchMethodException {
+        final InlineMethodCache cache = new InlineMethodCache();
+        assertEquals('b', cache.invoke(null, String.class, "charAt", "abc", new Object[] { 1 }));
+        assertEquals('c', cache.invoke(null, String.class, "charAt", "abc", new Object[] { 2d }));
+        assertEquals("a1", cache.invoke(null, String.class, "format", null, new Object[] { "%s%d", "a", 1 }));
+        assertEquals(Arrays.asList(1, 2, 3), cache.invoke(null, Arrays.class, "asList", null, new Object[] { 1, 2, 3 }));
+        final List<Object> list = new ArrayList<>();
+        assertEquals(Unit.UNIT, cache.invoke(null, List.class, "clear", list, NO_ARGS));
+        try {
+            ReflectionUtils.invokeFieldable(null, Math.class.getMethod("sin", double.class), null, new Object[] { "a" });
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("argument type mismatch"));
+        }
+    }
+
+}
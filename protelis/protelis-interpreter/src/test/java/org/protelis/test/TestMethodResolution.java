@@ -0,0 +1,164 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.reflect.MethodUtils;
+
+import org.junit.Test;
+import org.protelis.Builtins;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.lang.interpreter.util.InlineMethodCache;
+import org.protelis.lang.interpreter.util.ReflectionUtils;
+import org.protelis.vm.ExecutionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmarks the resolution of the Java methods commonly imported by Protelis
+ * programs, and checks that overloads are selected as expected.
+ */
+public class TestMethodResolution {
+
+    private static final Logger L = LoggerFactory.getLogger(TestMethodResolution.class);
+    private static final int WARM_ROUNDS = 1000;
+    private static final Tuple TUPLE = DatatypeFactory.createTuple(1, 2, 3);
+    private static final Field<Object> FIELD = DatatypeFactory.createFieldBuilder()
+            .add(new IntegerUID(1), 1d)
+            .build(new IntegerUID(0), 0d);
+    private static final List<Call> CALLS = Arrays.asList(
+            new Call(Math.class, "sin", null, 1d),
+            new Call(Math.class, "cos", null, 1d),
+            new Call(Math.class, "sqrt", null, 2d),
+            new Call(Math.class, "pow", null, 2d, 3d),
+            new Call(Math.class, "abs", null, -1d),
+            new Call(Math.class, "floor", null, 1.5),
+            new Call(Math.class, "max", null, 1d, 2d),
+            new Call(Math.class, "min", null, 1, 2),
+            new Call(Math.class, "hypot", null, 3d, 4d),
+            new Call(Double.class, "isNaN", null, 1d),
+            new Call(String.class, "length", "abc"),
+            new Call(String.class, "charAt", "abc", 1d),
+            new Call(String.class, "substring", "abc", 1, 2),
+            new Call(String.class, "concat", "abc", "d"),
+            new Call(String.class, "format", null, "%s", "a"),
+            new Call(TUPLE.getClass(), "get", TUPLE, 0),
+            new Call(TUPLE.getClass(), "size", TUPLE),
+            new Call(TUPLE.getClass(), "append", TUPLE, 4),
+            new Call(TUPLE.getClass(), "contains", TUPLE, 1),
+            new Call(TUPLE.getClass(), "subTupleEnd", TUPLE, 1),
+            new Call(DatatypeFactory.class, "createTuple", null, 1, 2),
+            new Call(Builtins.class, "foldSum", null, FIELD),
+            new Call(Builtins.class, "foldMin", null, 0d, FIELD),
+            new Call(Builtins.class, "foldMean", null, FIELD));
+
+    /**
+     * Resolve the calls once through fresh caches, as happens when programs
+     * get loaded. The first round includes the indexing of the classes, unless
+     * they were indexed by previous tests in the same JVM.
+     */
+    @Test
+    public void testColdStartResolution() {
+        final long start = System.nanoTime();
+        for (final Call call : CALLS) {
+            assertEquals(call.name, new InlineMethodCache().lookup(call.clazz, call.name, call.target, call.args).getName());
+        }
+        L.info("Resolution of {} Java calls: {}us cold",
+                CALLS.size(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+    }
+
+    /**
+     * Compares the resolution through the method index, bypassing any method
+     * cache, with the scan of all the public methods done before classes were
+     * indexed. The scan does not score the candidates, hence it underestimates
+     * the cost of the former resolution.
+     */
+    @Test
+    public void testIndexedResolution() {
+        for (final Call call : CALLS) {
+            assertEquals(call.name, ReflectionUtils.resolveMethod(call.clazz, call.name, call.argClasses).getName());
+            assertFalse(call.name, scanCandidates(call).isEmpty());
+        }
+        long indexed = 0;
+        long scanned = 0;
+        for (int i = 0; i < WARM_ROUNDS; i++) {
+            long start = System.nanoTime();
+            for (final Call call : CALLS) {
+                ReflectionUtils.resolveMethod(call.clazz, call.name, call.argClasses);
+            }
+            indexed += System.nanoTime() - start;
+            start = System.nanoTime();
+            for (final Call call : CALLS) {
+                scanCandidates(call);
+            }
+            scanned += System.nanoTime() - start;
+        }
+        final long calls = (long) WARM_ROUNDS * CALLS.size();
+        L.info("Resolution of a Java call: {}ns through the index, {}ns scanning the public methods",
+                indexed / calls, scanned / calls);
+    }
+
+    /**
+     * The most specific overload is selected.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testOverloads() throws NoSuchMethodException {
+        final InlineMethodCache cache = new InlineMethodCache();
+        assertEquals(Math.class.getMethod("max", double.class, double.class),
+                cache.lookup(Math.class, "max", null, new Object[] { 1d, 2d }));
+        assertEquals(Math.class.getMethod("max", int.class, int.class),
+                cache.lookup(Math.class, "max", null, new Object[] { 1, 2 }));
+        assertEquals(Math.class.getMethod("abs", long.class),
+                cache.lookup(Math.class, "abs", null, new Object[] { 1L }));
+        assertEquals(Builtins.class.getMethod("foldMin", Comparable.class, Field.class),
+                cache.lookup(Builtins.class, "foldMin", null, new Object[] { 0d, FIELD }));
+    }
+
+    /*
+     * Candidate selection performed before methods were indexed
+     */
+    private static List<Method> scanCandidates(final Call call) {
+        return Arrays.stream(call.clazz.getMethods())
+                .filter(m -> compatibleLength(m, call.args.length))
+                .filter(m -> m.getName().equals(call.name))
+                .map(MethodUtils::getAccessibleMethod)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static boolean compatibleLength(final Method method, final int arity) {
+        final Class<?>[] params = method.getParameterTypes();
+        return method.isVarArgs() && arity >= params.length - 1
+                || params.length == arity
+                || params.length == arity + 1 && ExecutionContext.class.isAssignableFrom(params[0]);
+    }
+
+    private static final class Call {
+        private final Class<?> clazz;
+        private final String name;
+        private final Object target;
+        private final Object[] args;
+        private final Class<?>[] argClasses;
+
+        private Call(final Class<?> clazz, final String name, final Object target, final Object... args) {
+            this.clazz = clazz;
+            this.name = name;
+            this.target = target;
+            this.args = args;
+            this.argClasses = Arrays.stream(args).map(Object::getClass).toArray(Class<?>[]::new);
+        }
+    }
+
+}
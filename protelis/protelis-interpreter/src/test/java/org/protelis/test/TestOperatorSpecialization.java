@@ -0,0 +1,49 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.protelis.lang.interpreter.util.Op1;
+import org.protelis.lang.interpreter.util.Op2;
+
+/**
+ * Operators specialized on doubles must behave as the generic ones.
+ */
+public class TestOperatorSpecialization {
+
+    private static final double[] VALUES = {
+        0, -0d, 1, -1, 0.5, 3, Double.MAX_VALUE, Double.MIN_VALUE,
+        Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN,
+    };
+
+    /**
+     * Binary operators.
+     */
+    @Test
+    public void testOp2() {
+        for (final Op2 op : Op2.values()) {
+            if (op.supportsDoubles()) {
+                for (final double a : VALUES) {
+                    for (final double b : VALUES) {
+                        assertEquals(op + " " + a + " " + b, op.run(a, b), op.runOnDoubles(a, b));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Unary operators.
+     */
+    @Test
+    public void testOp1() {
+        for (final Op1 op : Op1.values()) {
+            if (op.supportsDoubles()) {
+                for (final double a : VALUES) {
+                    assertEquals(op + " " + a, op.run(a), op.runOnDouble(a));
+                }
+            }
+        }
+    }
+
+}
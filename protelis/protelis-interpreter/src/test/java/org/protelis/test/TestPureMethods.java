@@ -0,0 +1,137 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.lang.interpreter.util.Pure;
+import org.protelis.lang.interpreter.util.PureMethods;
+import org.protelis.lang.interpreter.util.ReflectionUtils;
+import org.protelis.vm.ExecutionContext;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Checks that pure methods invoked on fields produce the same result when
+ * computed in parallel.
+ */
+public class TestPureMethods {
+
+    private static final int NEIGHBORS = 1000;
+    private static final Set<Thread> CALLERS = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param value a number
+     * @return the square of the number
+     */
+    @Pure
+    public static double square(final double value) {
+        return value * value;
+    }
+
+    /**
+     * @param value a number
+     * @return the number plus one
+     */
+    public static double increment(final double value) {
+        return value + 1;
+    }
+
+    /**
+     * @param context the execution context
+     * @param value a number
+     * @return the number
+     */
+    @Pure
+    public static double identity(final ExecutionContext context, final double value) {
+        CALLERS.add(Thread.currentThread());
+        return value;
+    }
+
+    /**
+     * Restores the default threshold.
+     */
+    @After
+    public void restoreThreshold() {
+        PureMethods.setParallelThreshold(PureMethods.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Annotated and registered methods are recognized as pure.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testRegistry() throws NoSuchMethodException {
+        final Method increment = TestPureMethods.class.getMethod("increment", double.class);
+        assertTrue(PureMethods.isPure(TestPureMethods.class.getMethod("square", double.class)));
+        assertFalse(PureMethods.isPure(increment));
+        PureMethods.register(increment);
+        assertTrue(PureMethods.isPure(increment));
+        PureMethods.unregister(increment);
+        assertFalse(PureMethods.isPure(increment));
+    }
+
+    /**
+     * Parallel invocation preserves values and device order.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testParallelInvocation() throws NoSuchMethodException {
+        final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
+        for (int i = 1; i <= NEIGHBORS; i++) {
+            builder.add(new IntegerUID(i), (double) i);
+        }
+        final Field<Object> field = builder.build(new IntegerUID(0), 0d);
+        final Method square = TestPureMethods.class.getMethod("square", double.class);
+        PureMethods.setParallelThreshold(Integer.MAX_VALUE);
+        final Field<?> sequential = (Field<?>) ReflectionUtils.invokeFieldable(null, square, null, new Object[] { field });
+        PureMethods.setParallelThreshold(0);
+        final Field<?> parallel = (Field<?>) ReflectionUtils.invokeFieldable(null, square, null, new Object[] { field });
+        assertEquals(sequential.toMap(), parallel.toMap());
+        /*
+         * Maps ignore the iteration order, which must follow the original field
+         */
+        final List<DeviceUID> devices = ImmutableList.copyOf(field.keys());
+        assertEquals(devices, ImmutableList.copyOf(parallel.keys()));
+        assertEquals(devices.stream().map(sequential::get).collect(Collectors.toList()),
+                ImmutableList.copyOf(parallel.values()));
+        assertEquals(field.getLocalDevice(), parallel.getLocalDevice());
+        assertEquals(0d, parallel.getLocalValue());
+        assertEquals((double) NEIGHBORS * NEIGHBORS, parallel.get(new IntegerUID(NEIGHBORS)));
+    }
+
+    /**
+     * Methods taking the execution context are never invoked in parallel.
+     *
+     * @throws NoSuchMethodException if the test is broken
+     */
+    @Test
+    public void testContextMethodsAreSequential() throws NoSuchMethodException {
+        final Field.Builder<Object> builder = DatatypeFactory.createFieldBuilder();
+        for (int i = 1; i <= NEIGHBORS; i++) {
+            builder.add(new IntegerUID(i), (double) i);
+        }
+        final Method identity = TestPureMethods.class.getMethod("identity", ExecutionContext.class, double.class);
+        PureMethods.setParallelThreshold(0);
+        CALLERS.clear();
+        final Field<?> result = (Field<?>) ReflectionUtils.invokeFieldable(
+                null, identity, null, new Object[] { builder.build(new IntegerUID(0), 0d) });
+        assertEquals(NEIGHBORS + 1, result.toMap().size());
+        assertEquals(ImmutableList.of(Thread.currentThread()), ImmutableList.copyOf(CALLERS));
+    }
+
+}
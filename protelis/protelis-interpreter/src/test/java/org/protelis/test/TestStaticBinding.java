@@ -0,0 +1,60 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Optional;
+
+import org.junit.Test;
+import org.protelis.Builtins;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Field;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.lang.interpreter.util.MethodInvoker;
+import org.protelis.lang.interpreter.util.ReflectionUtils;
+
+/**
+ * Checks the load-time binding of static Java methods.
+ */
+public class TestStaticBinding {
+
+    /**
+     * Only static methods that can be selected by arity get bound.
+     */
+    @Test
+    public void testBinding() {
+        assertTrue(ReflectionUtils.bindStaticMethod(Math.class, "sqrt", 1).isPresent());
+        assertTrue(ReflectionUtils.bindStaticMethod(Math.class, "hypot", 2).isPresent());
+        assertTrue(ReflectionUtils.bindStaticMethod(Builtins.class, "foldMean", 1).isPresent());
+        // Overloaded with a different arity
+        assertTrue(ReflectionUtils.bindStaticMethod(Builtins.class, "foldMin", 1).isPresent());
+        assertTrue(ReflectionUtils.bindStaticMethod(Builtins.class, "foldMin", 2).isPresent());
+        // Overloaded with the same arity
+        assertFalse(ReflectionUtils.bindStaticMethod(Math.class, "max", 2).isPresent());
+        assertFalse(ReflectionUtils.bindStaticMethod(String.class, "format", 2).isPresent());
+        // Wrong arity
+        assertFalse(ReflectionUtils.bindStaticMethod(Math.class, "sqrt", 2).isPresent());
+        // Not static
+        assertFalse(ReflectionUtils.bindStaticMethod(String.class, "length", 0).isPresent());
+        // Not existing
+        assertFalse(ReflectionUtils.bindStaticMethod(Math.class, "notExisting", 0).isPresent());
+    }
+
+    /**
+     * Bound methods convert numbers and apply to fields.
+     */
+    @Test
+    public void testInvocation() {
+        final Optional<MethodInvoker> sqrt = ReflectionUtils.bindStaticMethod(Math.class, "sqrt", 1);
+        assertEquals(2d, ReflectionUtils.invokeFieldable(null, sqrt.get(), null, new Object[] { 4 }));
+        final Field<Object> field = DatatypeFactory.createFieldBuilder()
+                .add(new IntegerUID(1), 9d)
+                .build(new IntegerUID(0), 4d);
+        final Object result = ReflectionUtils.invokeFieldable(null, sqrt.get(), null, new Object[] { field });
+        assertTrue(result instanceof Field);
+        assertEquals(3d, ((Field<?>) result).get(new IntegerUID(1)));
+        assertEquals(2d, ((Field<?>) result).getLocalValue());
+    }
+
+}
@@ -0,0 +1,256 @@
+package org.protelis.test;
+
+import static org.apache.commons.lang3.SerializationUtils.deserialize;
+import static org.apache.commons.lang3.SerializationUtils.serialize;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.datatype.impl.ArrayTupleImpl;
+import org.protelis.lang.datatype.impl.DoubleTupleImpl;
+import org.protelis.lang.datatype.impl.PersistentTupleImpl;
+import org.protelis.lang.datatype.impl.SetTupleImpl;
+import org.protelis.lang.interpreter.util.Op2;
+
+/**
+ * Checks that the {@link Tuple} implementations behave consistently.
+ */
+public class TestTuples {
+
+    private static final int SIZE = 2000;
+    private static final int CHECK_EVERY = 97;
+
+    private static void assertSameTuple(final List<Object> expected, final Tuple actual) {
+        final Tuple reference = new ArrayTupleImpl(expected.toArray());
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(expected.toArray(), actual.toArray());
+        final List<Object> iterated = new ArrayList<>(actual.size());
+        actual.forEach(iterated::add);
+        assertEquals(expected, iterated);
+        assertEquals(reference, actual);
+        assertEquals(actual, reference);
+        assertEquals(reference.hashCode(), actual.hashCode());
+        assertEquals(0, reference.compareTo(actual));
+        assertEquals(reference.toString(), actual.toString());
+    }
+
+    /**
+     * Persistent tuples behave as array-backed ones under append, set and tail.
+     */
+    @Test
+    public void testPersistentTuple() {
+        final Random random = new Random(0);
+        final List<Object> expected = new ArrayList<>();
+        Tuple actual = PersistentTupleImpl.of();
+        for (int i = 0; i < SIZE; i++) {
+            final double value = random.nextDouble();
+            expected.add(value);
+            actual = actual.append(value);
+            if (i % 7 == 0) {
+                final int index = random.nextInt(expected.size());
+                expected.set(index, (double) i);
+                actual = actual.set(index, (double) i);
+            }
+            if (i % 3 == 1) {
+                expected.remove(0);
+                actual = actual.tail();
+            }
+            assertEquals(expected.get(expected.size() - 1), actual.get(actual.size() - 1));
+        }
+        assertSameTuple(expected, actual);
+        assertSameTuple(expected, deserialize(serialize(actual)));
+        assertSameTuple(expected.subList(1, 10), actual.subTuple(1, 10));
+    }
+
+    /**
+     * Immutability: old versions are not affected by updates.
+     */
+    @Test
+    public void testSharing() {
+        final Object[] elements = new Object[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            elements[i] = (double) i;
+        }
+        final Tuple base = DatatypeFactory.createTuple(elements);
+        assertTrue(base instanceof PersistentTupleImpl);
+        final Tuple modified = base.set(0, -1d).append(-2d).tail();
+        assertEquals(SIZE, base.size());
+        assertEquals(0d, base.get(0));
+        assertEquals(1d, modified.get(0));
+        assertEquals(-2d, modified.get(SIZE - 1));
+        assertEquals(new ArrayTupleImpl(elements).mergeAfter(base), base.mergeAfter(new ArrayTupleImpl(elements)));
+    }
+
+    /**
+     * Numeric tuples are stored as primitives, and behave as generic ones.
+     */
+    @Test
+    public void testDoubleTuple() {
+        final Object[] elements = { 3d, -1d, 2d, Double.NaN, -0d, 0d, 2d };
+        final Tuple numeric = DatatypeFactory.createTuple(elements);
+        final Tuple generic = new ArrayTupleImpl(elements);
+        assertTrue(numeric instanceof DoubleTupleImpl);
+        assertEquals(generic, numeric);
+        assertEquals(generic.hashCode(), numeric.hashCode());
+        assertEquals(generic.sort(), numeric.sort());
+        assertEquals(generic.min(0d), numeric.min(0d));
+        assertEquals(generic.max(0d), numeric.max(0d));
+        assertEquals(generic.indexof(0d), numeric.indexof(0d));
+        assertEquals(-1, numeric.indexof(0));
+        for (final Op2 op : new Op2[] { Op2.PLUS, Op2.MINUS, Op2.TIMES, Op2.DIVIDE, Op2.MIN, Op2.MAX }) {
+            assertEquals(generic.reduce(0d, op.getFunction()), numeric.reduce(0d, op.getFunction()));
+            assertEquals(op.run(generic, generic), op.run(numeric, numeric));
+        }
+        assertEquals(Op2.MINUS.run(2d, generic), Op2.MINUS.run(2d, numeric));
+        assertEquals(Op2.DIVIDE.run(numeric, 2), Op2.DIVIDE.run(generic, 2));
+        assertTrue(Op2.TIMES.run(numeric, numeric) instanceof DoubleTupleImpl);
+        final Tuple promoted = numeric.append("a");
+        assertFalse(promoted instanceof DoubleTupleImpl);
+        assertEquals(generic.append("a"), promoted);
+        assertTrue(numeric.append(1d) instanceof DoubleTupleImpl);
+        assertEquals("a", numeric.set(0, "a").get(0));
+    }
+
+    /**
+     * Views behave as the tuples they represent, and are compacted when
+     * serialized or when much smaller than the original tuple.
+     */
+    @Test
+    public void testViews() {
+        final Object[] elements = new Object[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            elements[i] = i % 2 == 0 ? (double) i : String.valueOf(i);
+        }
+        final List<Object> expected = new ArrayList<>(Arrays.asList(elements));
+        for (final Tuple base : new Tuple[] {
+                new ArrayTupleImpl(elements),
+                PersistentTupleImpl.of(elements),
+                new DoubleTupleImpl(1, 2, 3, 4, 5),
+                SetTupleImpl.distinct(Arrays.asList(elements)),
+        }) {
+            final List<Object> content = base instanceof DoubleTupleImpl
+                    ? Arrays.asList(1d, 2d, 3d, 4d, 5d)
+                    : expected;
+            Tuple view = base;
+            for (int i = 1; i < content.size(); i++) {
+                view = view.tail();
+                if (i % CHECK_EVERY == 0 || i == content.size() - 1) {
+                    assertSameTuple(content.subList(i, content.size()), view);
+                }
+            }
+            final Tuple middle = base.subTuple(1, 4);
+            assertSameTuple(content.subList(1, 4), middle);
+            assertSameTuple(content.subList(2, 3), middle.subTuple(1, 2));
+            assertSameTuple(content.subList(1, 4), deserialize(serialize(middle)));
+            assertSameTuple(content.subList(1, 5), middle.append(content.get(4)));
+            assertEquals(0, base.subTuple(-1, content.size() + 1).compareTo(base));
+            assertTrue(base.subTuple(3, 1).isEmpty());
+            assertTrue(base.subTupleEnd(content.size() + 1).isEmpty());
+            for (final Object element : new Object[] { 0d, "0" }) {
+                try {
+                    base.insert(content.size() + 1, element);
+                    throw new AssertionError("Insertion past the end of " + base.getClass());
+                } catch (IndexOutOfBoundsException e) {
+                    assertEquals(IndexOutOfBoundsException.class, e.getClass());
+                }
+            }
+            assertTrue(serialize(middle).length < serialize(base).length);
+            /*
+             * Large views, and small compacted copies of them
+             */
+            final int half = content.size() / 2;
+            final Tuple large = base.subTuple(1, content.size());
+            assertSameTuple(content.subList(1, content.size()), large);
+            assertSameTuple(content.subList(half, half + 1), large.subTuple(half - 1, half));
+            assertSameTuple(content.subList(half, content.size()), large.subTupleEnd(half - 1));
+            assertTrue(large.subTuple(content.size(), content.size() + 1).isEmpty());
+        }
+    }
+
+    /**
+     * Set operations must be consistent with the ordered set semantics, and
+     * unions of old versions must not be affected by later unions.
+     */
+    @Test
+    public void testSetTuple() {
+        final Random random = new Random(0);
+        Tuple accumulator = DatatypeFactory.createTuple();
+        final LinkedHashSet<Object> expected = new LinkedHashSet<>();
+        final List<Tuple> versions = new ArrayList<>();
+        final List<List<Object>> expectedVersions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final Object[] chunk = { (double) random.nextInt(300), (double) random.nextInt(300), "s" + random.nextInt(50) };
+            accumulator = accumulator.union(DatatypeFactory.createTuple(chunk));
+            expected.addAll(Arrays.asList(chunk));
+            if (i % CHECK_EVERY == 0) {
+                versions.add(accumulator);
+                expectedVersions.add(new ArrayList<>(expected));
+            }
+        }
+        assertTrue(accumulator instanceof SetTupleImpl);
+        assertSameTuple(new ArrayList<>(expected), accumulator);
+        for (int i = 0; i < versions.size(); i++) {
+            assertSameTuple(expectedVersions.get(i), versions.get(i));
+            /*
+             * Fork an old version
+             */
+            final List<Object> forked = new ArrayList<>(expectedVersions.get(i));
+            if (!forked.contains("fork")) {
+                forked.add("fork");
+            }
+            assertSameTuple(forked, versions.get(i).union(DatatypeFactory.createTuple("fork")));
+            assertFalse(versions.get(i).contains("fork"));
+        }
+        assertSameTuple(new ArrayList<>(expected), accumulator);
+        final Tuple evens = accumulator.filter(it -> it instanceof Double && ((Double) it).intValue() % 2 == 0);
+        final List<Object> intersection = new ArrayList<>(expected);
+        intersection.retainAll(Arrays.asList(evens.toArray()));
+        assertSameTuple(intersection, accumulator.intersection(evens));
+        final List<Object> difference = new ArrayList<>(expected);
+        difference.removeAll(Arrays.asList(evens.toArray()));
+        assertSameTuple(difference, accumulator.subtract(evens));
+        assertSameTuple(intersection, evens.intersection(accumulator));
+        assertTrue(evens.subtract(accumulator).isEmpty());
+        assertSameTuple(new ArrayList<>(expected), deserialize(serialize(accumulator)));
+        assertEquals(accumulator, new ArrayTupleImpl(expected.toArray()));
+        assertEquals(accumulator.hashCode(), new ArrayTupleImpl(expected.toArray()).hashCode());
+    }
+
+    /**
+     * Set operations accept null elements, as tuples coming from Java may
+     * contain them.
+     */
+    @Test
+    public void testSetTupleNulls() {
+        final List<Object> first = new ArrayList<>();
+        final List<Object> second = new ArrayList<>();
+        for (int i = 0; i < SetTupleImpl.MIN_SIZE; i++) {
+            first.add((double) i);
+            second.add((double) i + SetTupleImpl.MIN_SIZE / 2);
+        }
+        first.add(3, null);
+        second.add(null);
+        final LinkedHashSet<Object> expected = new LinkedHashSet<>(first);
+        expected.addAll(second);
+        final Tuple union = new ArrayTupleImpl(first.toArray()).union(new ArrayTupleImpl(second.toArray()));
+        assertTrue(union instanceof SetTupleImpl);
+        assertArrayEquals(expected.toArray(), union.toArray());
+        assertTrue(union.contains(null));
+        assertEquals(3, union.indexof(null));
+        assertArrayEquals(new Object[] { 1d, null }, new ArrayTupleImpl(1d, null).union(new ArrayTupleImpl(null, 1d)).toArray());
+        expected.retainAll(second);
+        assertArrayEquals(expected.toArray(), union.intersection(new ArrayTupleImpl(second.toArray())).toArray());
+        assertFalse(union.subtract(new ArrayTupleImpl(new Object[] { null })).contains(null));
+    }
+
+}
@@ -23,3 +23,33 @@ protelisdoc {
     outputFormat.set("javadoc")
     debug.set(false)
 }
+
+/*
+ * Parse and link the library modules once, and ship their built functions
+ * next to their sources
+ */
+val precompiledModules = "$buildDir/precompiled-modules"
+val precompileModules by tasks.registering(JavaExec::class) {
+    val modules = fileTree("src/main/protelis") { include("**/*.pt") }
+    description = "Precompiles the Protelis modules of this library"
+    inputs.files(modules)
+    outputs.dir(precompiledModules)
+    classpath = sourceSets.main.get().runtimeClasspath
+    main = "org.protelis.lang.ModulePrecompiler"
+    doFirst {
+        delete(precompiledModules)
+    }
+    argumentProviders.add(
+        CommandLineArgumentProvider {
+            listOf(precompiledModules) + modules.map { it.relativeTo(file("src/main/protelis")).invariantSeparatorsPath }
+        }
+    )
+}
+
+tasks.jar {
+    from(precompileModules)
+}
+
+sourceSets.test {
+    runtimeClasspath += files(precompileModules)
+}
@@ -0,0 +1,142 @@
+package org.protelis.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.parser.protelis.FunctionDef;
+import org.protelis.test.InfrastructureTester;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * The library modules are shipped precompiled, and work also when their
+ * precompiled form cannot be used. This test lives in the package of the
+ * loader to check the precompiled functions it looks up.
+ */
+public class TestPrecompiledModules {
+
+    private static final int CYCLES = 10;
+    private static final String MODULE = "protelis/coord/spreading.pt";
+    private static final String PROGRAM = "import protelis:coord:spreading\n"
+            + "import protelis:state:time\n"
+            + "import protelis:lang:utils\n"
+            + "[distanceTo(true), broadcast(true, 1), countDown(5), cyclicTimer(3), and(true, false)]";
+    private static final Path SOURCES = Paths.get("src", "main", "protelis");
+
+    /**
+     * Restore the default inlining threshold.
+     */
+    @After
+    public void tearDown() {
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD);
+    }
+
+    /**
+     * Each module has a precompiled form in the classpath.
+     *
+     * @throws IOException if the sources cannot be listed
+     */
+    @Test
+    public void testModulesArePrecompiled() throws IOException {
+        final List<String> modules;
+        try (Stream<Path> files = Files.walk(SOURCES)) {
+            modules = files.filter(it -> it.toString().endsWith(".pt"))
+                    .map(it -> SOURCES.relativize(it).toString().replace('\\', '/'))
+                    .collect(Collectors.toList());
+        }
+        assertFalse(modules.isEmpty());
+        for (final String module : modules) {
+            assertNotNull(module + " is not precompiled",
+                    Thread.currentThread().getContextClassLoader().getResource(module + "c"));
+        }
+    }
+
+    /**
+     * The loader finds a precompiled function for each function of a module,
+     * unless the inlining threshold differs from the one used to build them.
+     */
+    @Test
+    public void testLookup() {
+        final Resource module = ProtelisLoader.resourceFromString(PROGRAM).getResourceSet()
+                .getResource(URI.createURI("classpath:/" + MODULE), false);
+        assertNotNull(module);
+        final List<FunctionDef> definitions = new ArrayList<>();
+        module.getAllContents().forEachRemaining(element -> {
+            if (element instanceof FunctionDef) {
+                definitions.add((FunctionDef) element);
+            }
+        });
+        assertFalse(definitions.isEmpty());
+        for (final FunctionDef definition : definitions) {
+            final String name = ProtelisLoadingUtilities.qualifiedNameFor(definition);
+            assertEquals(name, name, PrecompiledModules.lookup(definition, ProtelisLoader.getInliningThreshold())
+                    .orElseThrow(() -> new AssertionError(name + " is not precompiled"))
+                    .getName());
+            assertFalse(name, PrecompiledModules.lookup(definition, ProtelisLoader.getInliningThreshold() + 1).isPresent());
+        }
+    }
+
+    /**
+     * Precompiled functions and functions built from source produce the same
+     * results. Each run uses a new class loader, so that modules get parsed
+     * again and their functions are looked up with the current threshold.
+     */
+    @Test
+    public void testSameResultsAsSource() {
+        final List<Object> precompiled = withFreshModules(TestPrecompiledModules::run);
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD + 1);
+        assertEquals(precompiled, withFreshModules(TestPrecompiledModules::run));
+    }
+
+    /**
+     * Precompiled modules are ignored when the inlining threshold differs from
+     * the one used to build them.
+     */
+    @Test
+    public void testBuiltFromSource() {
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD + 1);
+        withFreshModules(() -> {
+            InfrastructureTester.runTest("gradient");
+            return null;
+        });
+    }
+
+    private static List<Object> run() {
+        final ProtelisVM vm = new ProtelisVM(ProtelisLoader.parse(PROGRAM), new DummyContext());
+        final List<Object> results = new ArrayList<>(CYCLES);
+        for (int i = 0; i < CYCLES; i++) {
+            vm.runCycle();
+            results.add(vm.getCurrentValue());
+        }
+        return results;
+    }
+
+    private static <T> T withFreshModules(final Supplier<T> test) {
+        final Thread current = Thread.currentThread();
+        final ClassLoader original = current.getContextClassLoader();
+        current.setContextClassLoader(new URLClassLoader(new URL[0], original));
+        try {
+            return test.get();
+        } finally {
+            current.setContextClassLoader(original);
+        }
+    }
+
+}
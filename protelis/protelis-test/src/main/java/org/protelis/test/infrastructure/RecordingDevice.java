@@ -0,0 +1,81 @@
+package org.protelis.test.infrastructure;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.vm.CodePath;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * A device without neighbors, running a program on a {@link DummyContext} and
+ * recording the value and the shared state of each round. Useful to check that
+ * a different evaluation strategy does not change results nor code paths.
+ */
+public final class RecordingDevice implements NetworkManager {
+
+    private final List<Map<CodePath, Object>> exports = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+    private final DummyContext context = new DummyContext(this);
+    private final ProtelisVM vm;
+
+    /**
+     * @param program
+     *            the program to run
+     */
+    public RecordingDevice(final ProtelisProgram program) {
+        vm = new ProtelisVM(program, context);
+    }
+
+    /**
+     * @return the context of this device, e.g. to populate its environment
+     */
+    public DummyContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return a copy of the state shared in each round, in order
+     */
+    public List<Map<CodePath, Object>> getExports() {
+        return Collections.unmodifiableList(exports);
+    }
+
+    /**
+     * @return the value of each round, in order
+     */
+    public List<Object> getValues() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Runs the program.
+     *
+     * @param cycles
+     *            number of rounds to run
+     * @return this device
+     */
+    public RecordingDevice run(final int cycles) {
+        for (int i = 0; i < cycles; i++) {
+            vm.runCycle();
+            values.add(vm.getCurrentValue());
+        }
+        return this;
+    }
+
+    @Override
+    public Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void shareState(final Map<CodePath, Object> toSend) {
+        exports.add(new LinkedHashMap<>(toSend));
+    }
+
+}
@@ -0,0 +1,86 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.datatype.Tuple;
+import org.protelis.lang.datatype.impl.ArrayTupleImpl;
+import org.protelis.lang.datatype.impl.DoubleTupleImpl;
+import org.protelis.lang.datatype.impl.PersistentTupleImpl;
+import org.protelis.lang.datatype.impl.SetTupleImpl;
+import org.protelis.test.infrastructure.RecordingDevice;
+import org.protelis.vm.CodePath;
+import org.protelis.vm.ProtelisProgram;
+
+import com.google.common.base.Strings;
+
+/**
+ * Devices must align on equal alignedMap keys, regardless of how they have
+ * been built.
+ */
+public final class TestAlignedMapKeys {
+
+    private static final int SIZE = SetTupleImpl.MIN_SIZE;
+    private static final String PROGRAM = "alignedMap(nbr([[env.get(\"key\"), 1]]),"
+            + " (key, field) -> { true }, (key, field) -> { sumHood(nbr(1)) }, 0)";
+    private int runs;
+
+    /**
+     * Equal tuple keys of different classes, including views, produce the same
+     * code paths.
+     */
+    @Test
+    public void testEqualTuplesOfDifferentClasses() {
+        final Object[] elements = new Object[SIZE];
+        final Object[] padded = new Object[SIZE + 1];
+        padded[0] = 0d;
+        for (int i = 0; i < SIZE; i++) {
+            elements[i] = i + 1d;
+            padded[i + 1] = i + 1d;
+        }
+        final List<Tuple> keys = Arrays.asList(
+                new ArrayTupleImpl(elements),
+                new ArrayTupleImpl(padded).subTuple(1, SIZE + 1),
+                DoubleTupleImpl.of(elements),
+                DoubleTupleImpl.of(padded).subTuple(1, SIZE + 1),
+                SetTupleImpl.distinct(Arrays.asList(elements)),
+                PersistentTupleImpl.of(elements));
+        final Set<CodePath> expected = exportedPaths(keys.get(0));
+        assertFalse(expected.isEmpty());
+        for (final Tuple key : keys) {
+            assertEquals(keys.get(0), key);
+            assertEquals(key.getClass().getSimpleName(), expected, exportedPaths(key));
+        }
+    }
+
+    /**
+     * Nested tuples of different classes produce the same code paths.
+     */
+    @Test
+    public void testNestedTuples() {
+        assertEquals(
+                exportedPaths(new ArrayTupleImpl("a", new ArrayTupleImpl(1d, 2d))),
+                exportedPaths(new ArrayTupleImpl("b", "a", DoubleTupleImpl.of(new Object[] { 1d, 2d })).subTuple(1, 3)));
+    }
+
+    /*
+     * Each run loads a new program, as frames are cached per key by the
+     * alignedMap node
+     */
+    private Set<CodePath> exportedPaths(final Tuple key) {
+        final ProtelisProgram program = ProtelisLoader.parse(PROGRAM + Strings.repeat("\n", runs++));
+        final RecordingDevice device = new RecordingDevice(program);
+        device.getContext().getExecutionEnvironment().put("key", key);
+        return device.run(1).getExports().stream()
+                .flatMap(it -> it.keySet().stream())
+                .collect(Collectors.toSet());
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisVM;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Programs can be loaded concurrently, sharing the modules they import.
+ * Modules are shared by the threads with the same context class loader: each
+ * test loads programs through a new one, so that modules get parsed again.
+ */
+public final class TestConcurrentLoading {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger("Protelis Test");
+    private static final int PROGRAMS = 64;
+    private static final int THREADS = 8;
+    private static final List<String> MODULES = Arrays.asList(
+            "classpath:/protelis/test/truefunctions.pt",
+            "classpath:/protelis/test/usejava.pt");
+    private static final String PROGRAM = "import protelis:test:truefunctions\n"
+            + "import protelis:test:usejava\n"
+            + "one() + two() + %d";
+
+    /**
+     * Restore parallel module parsing.
+     */
+    @After
+    public void tearDown() {
+        ProtelisLoader.setParallelModuleParsing(true);
+    }
+
+    /**
+     * Loads {@value #PROGRAMS} programs on {@value #THREADS} threads, parsing
+     * the imported modules in parallel.
+     *
+     * @throws InterruptedException if interrupted while loading
+     * @throws ExecutionException if a program cannot be loaded
+     */
+    @Test
+    public void testParallelModuleParsing() throws InterruptedException, ExecutionException {
+        ProtelisLoader.setParallelModuleParsing(true);
+        loadConcurrently();
+    }
+
+    /**
+     * Loads {@value #PROGRAMS} programs on {@value #THREADS} threads, parsing
+     * the imported modules sequentially.
+     *
+     * @throws InterruptedException if interrupted while loading
+     * @throws ExecutionException if a program cannot be loaded
+     */
+    @Test
+    public void testSequentialModuleParsing() throws InterruptedException, ExecutionException {
+        ProtelisLoader.setParallelModuleParsing(false);
+        loadConcurrently();
+    }
+
+    /**
+     * Threads with different context class loaders do not share modules.
+     *
+     * @throws InterruptedException if interrupted while loading
+     * @throws ExecutionException if a program cannot be loaded
+     */
+    @Test
+    public void testModulesPerClassLoader() throws InterruptedException, ExecutionException {
+        assertNotSame(loadConcurrently(), loadConcurrently());
+    }
+
+    /*
+     * Returns the resource set the modules have been loaded in
+     */
+    private static ResourceSet loadConcurrently() throws InterruptedException, ExecutionException {
+        final ClassLoader classLoader = new URLClassLoader(new URL[0], TestConcurrentLoading.class.getClassLoader());
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS, task -> {
+            final Thread thread = new Thread(task);
+            thread.setContextClassLoader(classLoader);
+            return thread;
+        });
+        try {
+            final long start = System.nanoTime();
+            final List<Future<Object>> results = new ArrayList<>(PROGRAMS);
+            for (int i = 0; i < PROGRAMS; i++) {
+                final String program = String.format(PROGRAM, i);
+                results.add(executor.submit(() -> {
+                    final ProtelisVM vm = new ProtelisVM(ProtelisLoader.parse(program), new DummyContext());
+                    vm.runCycle();
+                    return vm.getCurrentValue();
+                }));
+            }
+            for (int i = 0; i < PROGRAMS; i++) {
+                assertEquals(3.0 + i, ((Number) results.get(i).get()).doubleValue(), 0);
+            }
+            LOGGER.info("Loaded {} programs on {} threads in {}ms, parallel module parsing: {}",
+                    PROGRAMS, THREADS, (System.nanoTime() - start) / 1_000_000, ProtelisLoader.isParallelModuleParsing());
+            final ResourceSet modules = executor.submit(() -> ProtelisLoader.resourceFromString(String.format(PROGRAM, 0)))
+                    .get()
+                    .getResourceSet();
+            final List<String> uris = modules.getResources().stream()
+                    .map(Resource::getURI)
+                    .map(Object::toString)
+                    .collect(Collectors.toList());
+            for (final String module : MODULES) {
+                assertEquals(module + " must be loaded once in " + uris, 1, uris.stream().filter(module::equals).count());
+            }
+            assertTrue(modules.getResources().stream().allMatch(it -> it.getErrors().isEmpty()));
+            return modules;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.protelis.lang.interpreter.util.JavaInteroperabilityUtils.METADATA;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.protelis.lang.interpreter.ProtelisAST;
+import org.protelis.lang.interpreter.impl.All;
+import org.protelis.lang.interpreter.impl.BinaryOp;
+import org.protelis.lang.interpreter.impl.Constant;
+import org.protelis.lang.interpreter.impl.If;
+import org.protelis.lang.interpreter.impl.Variable;
+import org.protelis.lang.interpreter.util.Reference;
+import org.protelis.test.infrastructure.DummyContext;
+
+/**
+ * Allocation profile of the evaluation protocol: evaluating nodes that do not
+ * build new values must not produce garbage.
+ */
+public final class TestEvaluationAllocation {
+
+    private static final int STATEMENTS = 10;
+    /*
+     * All, plus an if, a binary operator, two variables and a constant per statement
+     */
+    private static final int NODES = 1 + STATEMENTS * 5;
+    private static final int WARMUP = 100;
+    private static final int RUNS = 1000;
+
+    /**
+     * Measures the bytes allocated per node evaluation.
+     */
+    @Test
+    public void testNoGarbagePerNode() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+        final Reference x = new Reference("x");
+        final List<ProtelisAST<?>> statements = new ArrayList<>(STATEMENTS);
+        for (int i = 0; i < STATEMENTS; i++) {
+            @SuppressWarnings("unchecked")
+            final ProtelisAST<Boolean> condition = (ProtelisAST<Boolean>) (ProtelisAST<?>) new BinaryOp(METADATA, "==",
+                    new Variable(METADATA, x), new Constant<>(METADATA, true));
+            statements.add(new If<>(METADATA, condition, new Variable(METADATA, x), new Constant<>(METADATA, false)));
+        }
+        final ProtelisAST<?> program = new All(METADATA, statements);
+        final DummyContext context = new DummyContext();
+        context.setup();
+        context.putVariable(x, true);
+        for (int i = 0; i < WARMUP; i++) {
+            program.eval(context);
+        }
+        final long thread = Thread.currentThread().getId();
+        final long before = allocations.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < RUNS; i++) {
+            program.eval(context);
+        }
+        final long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+        assertEquals("Bytes allocated per node evaluation", 0, allocated / ((long) RUNS * NODES));
+    }
+
+}
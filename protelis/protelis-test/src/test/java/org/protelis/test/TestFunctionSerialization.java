@@ -0,0 +1,43 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.datatype.FunctionDefinition;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * Functions can be applied after being serialized and read back.
+ */
+public final class TestFunctionSerialization {
+
+    private static final String PROGRAM = "let f = (a) -> { a + 1 };\n"
+            + "f.apply(0);\n"
+            + "f";
+
+    /**
+     * A deserialized function pushes the same call frame of the original one.
+     */
+    @Test
+    public void testApplyDeserialized() {
+        final ProtelisVM vm = new ProtelisVM(ProtelisLoader.parse(PROGRAM), new DummyContext());
+        vm.runCycle();
+        final FunctionDefinition original = (FunctionDefinition) vm.getCurrentValue();
+        final FunctionDefinition copy = SerializationUtils.roundtrip(original);
+        assertEquals(original, copy);
+        assertEquals(2.0, apply(original));
+        assertEquals(2.0, apply(copy));
+    }
+
+    private static Object apply(final FunctionDefinition function) {
+        final DummyContext context = new DummyContext();
+        context.setup();
+        final Object result = function.apply(context, 1.0);
+        context.commit();
+        return result;
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.protelis.test.ProgramTester.runFileWithMultipleRuns;
+
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.interpreter.impl.AlignedMap;
+import org.protelis.test.infrastructure.RecordingDevice;
+
+/**
+ * Patching the grouping of the previous round must produce the same results
+ * and exports of grouping keys from scratch.
+ */
+public final class TestIncrementalAlignedMap {
+
+    private static final int CYCLES = 12;
+    private static final String PROGRAM = "let round = rep (x <- 0) { x + 1 };\n"
+            + "let keys = if (round % 4 == 0) { [[1, round], [\"a\", 2], [2.5, round * 2], [\"b\", round]] }"
+            + " else { [[1, round], [\"a\", 2], [2.5, round * 2]] };\n"
+            + "let cond = (key, field) -> { true };\n"
+            + "let op = (key, field) -> { rep (x <- 0) { x + foldSum(field) } };\n"
+            + "alignedMap(nbr(keys), cond, op, 0)";
+
+    /**
+     * Restore the default mode.
+     */
+    @After
+    public void tearDown() {
+        AlignedMap.setIncremental(true);
+    }
+
+    /**
+     * Results and exports must not depend on the grouping mode.
+     */
+    @Test
+    public void testSameExports() {
+        final RecordingDevice incremental = run(PROGRAM);
+        AlignedMap.setIncremental(false);
+        final RecordingDevice fromScratch = run(PROGRAM + '\n');
+        assertEquals(CYCLES, incremental.getExports().size());
+        assertEquals(fromScratch.getExports(), incremental.getExports());
+        assertEquals(fromScratch.getValues(), incremental.getValues());
+    }
+
+    /**
+     * Test the alignedMap construct, grouping keys from scratch.
+     */
+    @Test
+    public void testAlignedMap() {
+        AlignedMap.setIncremental(false);
+        runFileWithMultipleRuns("/alignedMap.pt");
+    }
+
+    private static RecordingDevice run(final String program) {
+        return new RecordingDevice(ProtelisLoader.parse(program)).run(CYCLES);
+    }
+
+}
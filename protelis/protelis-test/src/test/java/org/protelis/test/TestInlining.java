@@ -0,0 +1,135 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.protelis.test.ProgramTester.runFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.datatype.DatatypeFactory;
+import org.protelis.lang.datatype.DeviceUID;
+import org.protelis.lang.datatype.impl.IntegerUID;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.test.infrastructure.RecordingDevice;
+import org.protelis.vm.CodePath;
+import org.protelis.vm.NetworkManager;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Inlining of function calls must not change results nor code paths.
+ */
+public final class TestInlining {
+
+    private static final int CYCLES = 10;
+    private static final String PROGRAM = "def inc(x) { x + 1 }\n"
+            + "def twice(x) { sumHood(nbr(x)) + sumHood(nbr(x)) }\n"
+            + "def sum(a, b) { sumHood(nbr(inc(a))) + b }\n"
+            + "rep (v <- 0) { twice(inc(v)) + sum(v, 1) + sum(inc(v), twice(v)) + inc(2) }";
+    private static final String FIELD_PROGRAM = "def plusOne(f) { f + 1 }\n"
+            + "let n = nbr(1);\n"
+            + "[sumHood(plusOne(n)), sumHood(plusOne(nbr(2)))]";
+
+    /**
+     * Restore the default inlining threshold.
+     */
+    @After
+    public void tearDown() {
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD);
+    }
+
+    /**
+     * Exports of inlined and called functions must be the same.
+     */
+    @Test
+    public void testSameCodePaths() {
+        final List<Map<CodePath, Object>> inlined = exports(PROGRAM);
+        ProtelisLoader.setInliningThreshold(0);
+        /*
+         * A different source, so that a fresh resource gets parsed
+         */
+        final List<Map<CodePath, Object>> called = exports(PROGRAM + '\n');
+        assertEquals(CYCLES, called.size());
+        assertEquals(called, inlined);
+    }
+
+    /**
+     * Fields passed to inlined functions are restricted at the code path of
+     * the original call, so that devices inlining the call stay aligned with
+     * devices that do not.
+     */
+    @Test
+    public void testFieldArgumentsAcrossDevices() {
+        final ProtelisProgram inlined = ProtelisLoader.parse(FIELD_PROGRAM);
+        ProtelisLoader.setInliningThreshold(0);
+        final ProtelisProgram called = ProtelisLoader.parse(FIELD_PROGRAM + '\n');
+        final List<Map<CodePath, Object>> inlinedExports = new ArrayList<>();
+        final List<Map<CodePath, Object>> calledExports = new ArrayList<>();
+        final ProtelisVM inlinedDevice = new ProtelisVM(inlined, new DummyContext(
+                new NeighborNetwork(inlinedExports, calledExports)));
+        final ProtelisVM calledDevice = new ProtelisVM(called, new DummyContext(
+                new NeighborNetwork(calledExports, inlinedExports)));
+        for (int i = 0; i < CYCLES; i++) {
+            inlinedDevice.runCycle();
+            calledDevice.runCycle();
+        }
+        assertEquals(calledExports.get(CYCLES - 1).keySet(), inlinedExports.get(CYCLES - 1).keySet());
+        /*
+         * Each device sees the other as neighbor
+         */
+        final Object expected = DatatypeFactory.createTuple(2.0, 3.0);
+        assertEquals(expected, inlinedDevice.getCurrentValue());
+        assertEquals(expected, calledDevice.getCurrentValue());
+    }
+
+    /**
+     * Test programs with functions, inlining disabled.
+     */
+    @Test
+    public void testWithoutInlining() {
+        ProtelisLoader.setInliningThreshold(0);
+        for (final String file : ImmutableList.of(
+                "/closure01.pt", "/function01.pt", "/function02.pt", "/function03.pt", "/function04.pt")) {
+            runFile(file);
+        }
+    }
+
+    private static List<Map<CodePath, Object>> exports(final String program) {
+        return new RecordingDevice(ProtelisLoader.parse(program)).run(CYCLES).getExports();
+    }
+
+    /*
+     * A device whose only neighbor is the device producing the provided exports
+     */
+    private static final class NeighborNetwork implements NetworkManager {
+        private static final DeviceUID NEIGHBOR = new IntegerUID(1);
+        private final List<Map<CodePath, Object>> sent;
+        private final List<Map<CodePath, Object>> received;
+
+        private NeighborNetwork(final List<Map<CodePath, Object>> sent, final List<Map<CodePath, Object>> received) {
+            this.sent = sent;
+            this.received = received;
+        }
+
+        @Override
+        public void shareState(final Map<CodePath, Object> toSend) {
+            sent.add(new LinkedHashMap<>(toSend));
+        }
+
+        @Override
+        public Map<DeviceUID, Map<CodePath, Object>> getNeighborState() {
+            return received.isEmpty()
+                    ? Collections.emptyMap()
+                    : Collections.singletonMap(NEIGHBOR, received.get(received.size() - 1));
+        }
+    }
+
+}
@@ -72,6 +72,14 @@ public class TestLanguage {
          runFile("/closure02.pt");
      }
 
+    /**
+     * Test expressions that can be simplified at load time.
+     */
+    @Test
+    public void testConstantFolding01() {
+        runFileWithMultipleRuns("/constantFolding01.pt");
+    }
+
     /**
      * Test the cyclic timer.
      */
@@ -303,6 +311,15 @@ public class TestLanguage {
         runFile("/hof06.pt");
     }
 
+    /**
+     * Test a higher order function applying more lambdas than its call site
+     * caches.
+     */
+    @Test
+    public void testHof07() {
+        runFile("/hof07.pt");
+    }
+
     /**
      * Test that plain hood functions don't include local value.
      */
@@ -778,6 +795,14 @@ public class TestLanguage {
         runFileWithMultipleRuns("/share04.pt");
     }
 
+    /**
+     * Test operators applied to values of changing types.
+     */
+    @Test
+    public void testSpecialization01() {
+        runFile("/specialization01.pt");
+    }
+
     /**
      * Test infix addition.
      */
@@ -915,6 +940,15 @@ public class TestLanguage {
         runFile("/tupleMapRetainsState.pt");
     }
 
+    /**
+     * Tests that Tuple.map, Tuple.filter and Tuple.reduce align the state of
+     * each element.
+     */
+    @Test
+    public void testTupleOperationsRetainState() {
+        runFile("/tupleOperationsRetainState.pt");
+    }
+
     /**
      * Test the Tuple.reduce method.
      */
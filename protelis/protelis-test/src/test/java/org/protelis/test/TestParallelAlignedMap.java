@@ -0,0 +1,59 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.protelis.test.ProgramTester.runFileWithMultipleRuns;
+
+import org.junit.After;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.lang.interpreter.impl.AlignedMap;
+import org.protelis.test.infrastructure.RecordingDevice;
+
+/**
+ * Parallel evaluation of alignedMap keys must not change results, exports
+ * nor persisted state.
+ */
+public final class TestParallelAlignedMap {
+
+    private static final int CYCLES = 10;
+    private static final String PROGRAM = "let keys = [[1, 1], [\"a\", 2], [2.5, 3], [[1, 2], 4], [\"skip\", 5]];\n"
+            + "let cond = (key, field) -> { key != \"skip\" };\n"
+            + "let op = (key, field) -> { rep (x <- 0) { x + sumHood(nbr(foldSum(field))) } };\n"
+            + "[alignedMap(nbr(keys), cond, op, 0), alignedMap(nbr(keys), cond, op, 1)]";
+
+    /**
+     * Restore the default parallel threshold.
+     */
+    @After
+    public void tearDown() {
+        AlignedMap.setParallelThreshold(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Exports of parallel and sequential evaluations must be the same, in
+     * the same order.
+     */
+    @Test
+    public void testSameExports() {
+        final RecordingDevice sequential = run(PROGRAM);
+        AlignedMap.setParallelThreshold(0);
+        final RecordingDevice parallel = run(PROGRAM + '\n');
+        assertEquals(CYCLES, sequential.getExports().size());
+        assertEquals(sequential.getExports(), parallel.getExports());
+        assertEquals(sequential.getValues(), parallel.getValues());
+    }
+
+    /**
+     * Test the alignedMap construct, parallel evaluation enabled.
+     */
+    @Test
+    public void testAlignedMap() {
+        AlignedMap.setParallelThreshold(0);
+        runFileWithMultipleRuns("/alignedMap.pt");
+    }
+
+    private static RecordingDevice run(final String program) {
+        return new RecordingDevice(ProtelisLoader.parse(program)).run(CYCLES);
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * Programs stored on disk must behave as freshly parsed programs.
+ */
+public final class TestPersistentProgramCache {
+
+    private static final int CYCLES = 10;
+    private static final String MODULE = "persisted:program";
+    private static final String PROGRAM = "def count(x) { rep (v <- 0) { v + x } }\n"
+            + "let f = (a) -> { count(a) + sumHood(nbr(1)) };\n"
+            + "[count(1), f.apply(2), [1, 2, 3].map { count(it) }]";
+    private static volatile boolean gadgetRead;
+
+    /**
+     * Temporary directory for the stored programs and their sources.
+     */
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private Path directory;
+    private Path source;
+    private ClassLoader originalClassLoader;
+
+    /**
+     * Store programs in the temporary directory, and load modules from a
+     * temporary classpath entry.
+     *
+     * @throws IOException if the module cannot be written
+     */
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.getRoot().toPath().resolve("programs");
+        final Path classpath = folder.newFolder("classpath").toPath();
+        source = classpath.resolve("persisted").resolve("program.pt");
+        Files.createDirectories(source.getParent());
+        writeSource(PROGRAM);
+        originalClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(
+                new URLClassLoader(new URL[] { classpath.toUri().toURL() }, originalClassLoader));
+        ProtelisLoader.setPersistentCacheDirectory(directory);
+    }
+
+    /**
+     * Disable storing and restore the class loader.
+     */
+    @After
+    public void tearDown() {
+        ProtelisLoader.setPersistentCacheDirectory(null);
+        Thread.currentThread().setContextClassLoader(originalClassLoader);
+    }
+
+    /**
+     * The first load stores the program, the following ones read it back.
+     *
+     * @throws IOException if the directory cannot be listed
+     */
+    @Test
+    public void testStoredProgram() throws IOException {
+        final Object expected = run(ProtelisLoader.parse(MODULE));
+        assertEquals(1, storedPrograms().size());
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+        assertEquals(expected, run(ProtelisLoader.parseURI("classpath:/persisted/program.pt")));
+        assertEquals(1, storedPrograms().size());
+        writeSource(PROGRAM + '\n');
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+        assertEquals(2, storedPrograms().size());
+    }
+
+    /**
+     * Programs passed as text are not stored.
+     *
+     * @throws IOException if the directory cannot be listed
+     */
+    @Test
+    public void testAnonymousProgramsAreNotStored() throws IOException {
+        final Object expected = run(ProtelisLoader.parse(MODULE));
+        assertEquals(expected, run(ProtelisLoader.parse(PROGRAM)));
+        assertEquals(expected, run(ProtelisLoader.parseAnonymousModule(PROGRAM)));
+        assertEquals(expected, run(ProtelisLoader.parseCachedAnonymousModule(PROGRAM)));
+        assertEquals(1, storedPrograms().size());
+    }
+
+    /**
+     * Entries that cannot be read back are replaced.
+     *
+     * @throws IOException if the entry cannot be written
+     */
+    @Test
+    public void testCorruptedEntry() throws IOException {
+        final Object expected = run(ProtelisLoader.parse(MODULE));
+        final List<Path> stored = storedPrograms();
+        assertEquals(1, stored.size());
+        Files.write(stored.get(0), new byte[] { 1, 2, 3 });
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+        assertTrue(Files.size(stored.get(0)) > 3);
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+    }
+
+    /**
+     * Entries containing classes programs are not made of are replaced,
+     * without creating any of their objects.
+     *
+     * @throws IOException if the entry cannot be written
+     */
+    @Test
+    public void testForeignClassesAreNotRead() throws IOException {
+        final Object expected = run(ProtelisLoader.parse(MODULE));
+        final List<Path> stored = storedPrograms();
+        assertEquals(1, stored.size());
+        Files.write(stored.get(0), SerializationUtils.serialize(new Gadget()));
+        gadgetRead = false;
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+        assertFalse(gadgetRead);
+        assertEquals(expected, run(ProtelisLoader.parse(MODULE)));
+        assertFalse(gadgetRead);
+    }
+
+    private void writeSource(final String program) throws IOException {
+        Files.write(source, program.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Path> storedPrograms() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(it -> it.toString().endsWith(".ast"))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Object run(final ProtelisProgram program) {
+        final ProtelisVM vm = new ProtelisVM(program, new DummyContext());
+        for (int i = 0; i < CYCLES; i++) {
+            vm.runCycle();
+        }
+        return vm.getCurrentValue();
+    }
+
+    private static final class Gadget implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            gadgetRead = true;
+        }
+    }
+
+}
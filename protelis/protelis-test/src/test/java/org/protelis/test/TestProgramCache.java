@@ -0,0 +1,92 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Anonymous programs are parsed once, and shared by programs with their own
+ * state.
+ */
+public final class TestProgramCache {
+
+    private static final String PROGRAM = "rep (x <- 0) { x + 1 }";
+
+    /**
+     * Start from an empty cache.
+     */
+    @Before
+    public void setUp() {
+        ProtelisLoader.setProgramCacheSize(ProtelisLoader.DEFAULT_PROGRAM_CACHE_SIZE);
+    }
+
+    /**
+     * Restore an empty cache and the default inlining threshold.
+     */
+    @After
+    public void tearDown() {
+        setUp();
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD);
+    }
+
+    /**
+     * The second parse is a hit, and programs do not share values.
+     */
+    @Test
+    public void testSharedParsing() {
+        final ProtelisProgram first = ProtelisLoader.parseCachedAnonymousModule(PROGRAM);
+        final ProtelisProgram second = ProtelisLoader.parseCachedAnonymousModule(PROGRAM);
+        assertNotSame(first, second);
+        final CacheStats stats = ProtelisLoader.getProgramCacheStats();
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.hitCount());
+        final ProtelisVM vm = new ProtelisVM(first, new DummyContext());
+        vm.runCycle();
+        vm.runCycle();
+        assertEquals(2d, first.getCurrentValue());
+        assertNull(second.getCurrentValue());
+    }
+
+    /**
+     * Programs loaded with a different inlining threshold are not reused.
+     */
+    @Test
+    public void testInliningThresholdIsPartOfTheKey() {
+        ProtelisLoader.parseCachedAnonymousModule(PROGRAM);
+        ProtelisLoader.setInliningThreshold(0);
+        ProtelisLoader.parseCachedAnonymousModule(PROGRAM);
+        assertEquals(2, ProtelisLoader.getProgramCacheStats().missCount());
+        ProtelisLoader.setInliningThreshold(ProtelisLoader.DEFAULT_INLINING_THRESHOLD);
+        ProtelisLoader.parseCachedAnonymousModule(PROGRAM);
+        assertEquals(2, ProtelisLoader.getProgramCacheStats().missCount());
+        assertEquals(1, ProtelisLoader.getProgramCacheStats().hitCount());
+    }
+
+    /**
+     * Programs with errors are not cached.
+     */
+    @Test
+    public void testErrorsAreNotCached() {
+        for (int i = 0; i < 2; i++) {
+            try {
+                ProtelisLoader.parseCachedAnonymousModule("1 +");
+            } catch (IllegalArgumentException e) { // NOPMD: expected
+                continue;
+            }
+            throw new AssertionError("The program should not have been parsed");
+        }
+        assertEquals(2, ProtelisLoader.getProgramCacheStats().missCount());
+        assertEquals(0, ProtelisLoader.getProgramCacheStats().hitCount());
+    }
+
+}
@@ -0,0 +1,49 @@
+package org.protelis.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.protelis.lang.ProtelisLoader;
+import org.protelis.test.infrastructure.DummyContext;
+import org.protelis.vm.ProtelisProgram;
+import org.protelis.vm.ProtelisVM;
+
+/**
+ * A single program can be shared by devices running concurrently.
+ */
+public final class TestSharedProgram {
+
+    private static final int DEVICES = 64;
+    private static final int CYCLES = 50;
+    private static final String PROGRAM = "def count(x) { rep (v <- 0) { v + x } }\n"
+            + "[count(1), count(2), alignedMap(nbr([[1, 1], [2, 2]]), (k, v) -> { true }, (k, v) -> { count(k) }, 0)]";
+
+    /**
+     * Each device sees its own state.
+     */
+    @Test
+    public void testConcurrentDevices() {
+        final ProtelisProgram program = ProtelisLoader.parse(PROGRAM);
+        final List<ProtelisVM> vms = IntStream.range(0, DEVICES)
+                .mapToObj(i -> new ProtelisVM(program, new DummyContext()))
+                .collect(Collectors.toList());
+        vms.parallelStream().forEach(vm -> {
+            for (int i = 0; i < CYCLES; i++) {
+                vm.runCycle();
+            }
+        });
+        final ProtelisVM reference = new ProtelisVM(ProtelisLoader.parse(PROGRAM + '\n'), new DummyContext());
+        for (int i = 0; i < CYCLES; i++) {
+            reference.runCycle();
+        }
+        for (final ProtelisVM vm : vms) {
+            assertEquals(reference.getCurrentValue(), vm.getCurrentValue());
+        }
+        assertEquals(reference.getCurrentValue(), program.getCurrentValue());
+    }
+
+}